@@ -0,0 +1,177 @@
+package net.trdlo.zelda.guan;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Srovnání načítání textové mapy: původní cesta přes regulární výrazy (World.loadWithPatterns) proti MapParser.
+ * Mapy se vygenerují do dočasných souborů, každá se načte oběma způsoby a ověří se, že vzniklé světy jsou stejné.
+ * Kromě velikostí se měří i maps/test.map a malá mapa s okrajovými případy zápisu.
+ *
+ * Argumenty: počty lajn generovaných map (výchozí 10000 100000 1000000). Počet opakování lze změnit vlastností
+ * bench.repeat.
+ */
+public class MapLoadBenchmark {
+
+	private static final String TEST_MAP = "maps/test.map";
+	private static final long SEED = 42;
+
+	/**
+	 * Záznamy, které musí oba parsery přijmout nebo odmítnout stejně
+	 */
+	private static final String[] EDGE_CASES = {
+		"Point 0 [0;0]",
+		"  point\t1 [ -1.5 ; +.25 ]   img images/none.png",
+		"POINT 2[3;4]popis s ; a ] uvnitř",
+		"Point 3 [5.;6]",
+		"Point 3 [7;8] pozdější bod se stejným ID",
+		"Point4 [1;1]",
+		"Point 5 [1e3;1]",
+		"Line 0 1",
+		"line 1\t2  ",
+		"Line 2 3",
+		"Line 0 2 3",
+		"Line 01 2",
+		"Player [1;2] 0.5",
+		"player[ -1 ; 2 ]-3.25 90",
+		"Player [1;2] 0.5 ",
+		"Player [1;2] 12.",
+		"nesmysl",
+		"",
+		"Point 6 [9;9]  ",
+		"Point 7 [10;10]\r",
+		"Line 7 0"
+	};
+
+	private final int repeat;
+
+	private MapLoadBenchmark(int repeat) {
+		this.repeat = repeat;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int[] sizes = {10000, 100000, 1000000};
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+		MapLoadBenchmark benchmark = new MapLoadBenchmark(Integer.getInteger("bench.repeat", 3));
+
+		System.out.println(String.format(Locale.ENGLISH, "%-16s %10s %10s %12s %12s %8s", "map", "points", "lines", "regex ms", "parser ms", "speedup"));
+		File edgeCases = File.createTempFile("edge", ".map");
+		try {
+			try (Writer w = new BufferedWriter(new FileWriter(edgeCases))) {
+				for (String line : EDGE_CASES) {
+					w.write(line);
+					w.write("\n");
+				}
+			}
+			benchmark.run("edge cases", edgeCases.getPath());
+		} finally {
+			edgeCases.delete();
+		}
+		benchmark.run("test.map", TEST_MAP);
+		for (int size : sizes) {
+			File file = File.createTempFile("bench", ".map");
+			try {
+				writeRandomMap(file, size);
+				benchmark.run("random-" + size, file.getPath());
+			} finally {
+				file.delete();
+			}
+		}
+	}
+
+	private void run(String name, String fileName) throws Exception {
+		long regexBest = Long.MAX_VALUE, parserBest = Long.MAX_VALUE;
+		World regexWorld = null, parserWorld = null;
+		for (int i = 0; i < repeat; i++) {
+			regexWorld = parserWorld = null;
+			System.gc();
+			long start = System.nanoTime();
+			regexWorld = new World();
+			regexWorld.loadWithPatterns(fileName);
+			regexBest = Math.min(regexBest, System.nanoTime() - start);
+
+			regexWorld = null;
+			System.gc();
+			start = System.nanoTime();
+			parserWorld = new World();
+			parserWorld.loadFromFile(fileName);
+			parserBest = Math.min(parserBest, System.nanoTime() - start);
+		}
+		regexWorld = new World();
+		regexWorld.loadWithPatterns(fileName);
+		String difference = compare(regexWorld, parserWorld);
+		if (difference != null) {
+			throw new IllegalStateException(name + ": worlds differ, " + difference);
+		}
+
+		System.out.println(String.format(Locale.ENGLISH, "%-16s %10d %10d %12.1f %12.1f %7.1fx",
+			name, parserWorld.points.size(), parserWorld.lines.size(), regexBest / 1e6, parserBest / 1e6, (double) regexBest / parserBest));
+	}
+
+	/**
+	 * @return	popis prvního rozdílu, nebo null, pokud jsou světy stejné
+	 */
+	private static String compare(World a, World b) {
+		if (a.points.size() != b.points.size() || a.lines.size() != b.lines.size() || a.players.size() != b.players.size()
+			|| a.textures.size() != b.textures.size()) {
+			return String.format("sizes %d/%d/%d/%d vs %d/%d/%d/%d", a.points.size(), a.lines.size(), a.players.size(), a.textures.size(),
+				b.points.size(), b.lines.size(), b.players.size(), b.textures.size());
+		}
+		Iterator<Point> pa = a.points.iterator(), pb = b.points.iterator();
+		while (pa.hasNext()) {
+			Point p = pa.next(), q = pb.next();
+			if (Double.compare(p.x, q.x) != 0 || Double.compare(p.y, q.y) != 0 || !p.getDescription().equals(q.getDescription())) {
+				return p + " vs " + q;
+			}
+		}
+		Iterator<Line> la = a.lines.iterator(), lb = b.lines.iterator();
+		while (la.hasNext()) {
+			Line l = la.next(), m = lb.next();
+			if (l.A.slot != m.A.slot || l.B.slot != m.B.slot) {
+				return "line " + l.A + " - " + l.B + " vs " + m.A + " - " + m.B;
+			}
+		}
+		Iterator<Player> ya = a.players.iterator(), yb = b.players.iterator();
+		while (ya.hasNext()) {
+			Player p = ya.next(), q = yb.next();
+			if (p.x != q.x || p.y != q.y || p.orientation != q.orientation || p.fov != q.fov) {
+				return "player " + p.saveToString() + " vs " + q.saveToString();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Navzájem nespojené krátké úsečky, zapsané stejně jako World.saveToFile
+	 */
+	private static void writeRandomMap(File file, int lines) throws Exception {
+		Random random = new Random(SEED);
+		double side = Math.sqrt(lines) * 40;
+		try (Writer w = new BufferedWriter(new FileWriter(file))) {
+			w.write(new Player(side / 2, side / 2, 0, Math.PI).saveToString().replaceFirst(" [^ ]+$", " 180"));
+			w.write("\n");
+			for (int i = 0; i < lines; i++) {
+				double x = random.nextDouble() * side, y = random.nextDouble() * side;
+				double angle = random.nextDouble() * 2 * Math.PI, length = 5 + random.nextDouble() * 35;
+				w.write(new Point(x, y, i % 100 == 0 ? "sloup " + i : "").saveToString(2 * i));
+				w.write("\n");
+				w.write(new Point(x + Math.cos(angle) * length, y + Math.sin(angle) * length).saveToString(2 * i + 1));
+				w.write("\n");
+			}
+			for (int i = 0; i < lines; i++) {
+				w.write("Line " + (2 * i) + " " + (2 * i + 1));
+				w.write("\n");
+			}
+		}
+	}
+}
@@ -0,0 +1,339 @@
+package net.trdlo.zelda.guan;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import net.trdlo.zelda.NU;
+
+/**
+ * Měření rychlosti výpočtu horizontu (TorchLight) nad syntetickými mapami a maps/test.map. Pro každý scénář se
+ * nejdřív zahřeje JIT, pak se po danou dobu počítají horizonty pro pevnou sadu pozorovatelů. Vypisuje propustnost
+ * a počet alokovaných bajtů na jeden horizont. Spouští se headless (ant bench).
+ *
+ * Argumenty: podřetězce názvů scénářů, které se mají spustit (bez argumentů se spustí všechny). Doby zahřátí
+ * a měření v ms lze změnit vlastnostmi bench.warmup a bench.measure.
+ */
+public class TorchLightBenchmark {
+
+	private static final int[] SIZES = {100, 1000, 10000, 100000};
+	private static final int[] FOVS = {120, 360};
+	private static final double[] VIEW_DISTANCES = {160, 321, 640};
+	private static final int OBSERVERS = 64;
+	private static final long SEED = 42;
+
+	private static final String TEST_MAP = "maps/test.map";
+
+	private final long warmupMillis, measureMillis;
+	private final String[] filters;
+	private final ThreadMXBean threadBean;
+
+	private TorchLightBenchmark(long warmupMillis, long measureMillis, String[] filters) {
+		this.warmupMillis = warmupMillis;
+		this.measureMillis = measureMillis;
+		this.filters = filters;
+
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			((com.sun.management.ThreadMXBean) bean).setThreadAllocatedMemoryEnabled(true);
+			threadBean = bean;
+		} else {
+			threadBean = null;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		TorchLightBenchmark benchmark = new TorchLightBenchmark(Long.getLong("bench.warmup", 500), Long.getLong("bench.measure", 1000), args);
+		benchmark.run();
+	}
+
+	private boolean accepts(String name) {
+		if (filters.length == 0) {
+			return true;
+		}
+		for (String filter : filters) {
+			if (name.contains(filter)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void run() throws Exception {
+		System.out.println(String.format(Locale.ENGLISH, "%-16s %8s %5s %6s %12s %10s %12s", "map", "lines", "fov", "vDist", "ops/s", "us/op", "B/op"));
+
+		for (int size : SIZES) {
+			runMap("rooms-" + size, null, size);
+			runMap("maze-" + size, null, size);
+			runMap("random-" + size, null, size);
+			runMap("circles-" + size, null, size);
+		}
+		runMap("test.map", TEST_MAP, 0);
+	}
+
+	private void runMap(String name, String fileName, int size) throws Exception {
+		if (!accepts(name)) {
+			return;
+		}
+
+		World world;
+		if (fileName != null) {
+			world = new World();
+			world.loadFromFile(fileName);
+		} else if (name.startsWith("rooms")) {
+			world = createRooms(size);
+		} else if (name.startsWith("maze")) {
+			world = createMaze(size);
+		} else if (name.startsWith("random")) {
+			world = createRandomSegments(size);
+		} else {
+			world = createCircles(size);
+		}
+
+		for (int fov : FOVS) {
+			for (double vDist : VIEW_DISTANCES) {
+				measure(name, world, createObservers(world, NU.degToRad(fov), vDist), fov, vDist);
+			}
+		}
+	}
+
+	private void measure(String name, World world, Player[] observers, int fov, double vDist) {
+		TorchLight torchLight = new TorchLight();
+		PolygonBuffer horizont = new PolygonBuffer();
+
+		long deadline = System.nanoTime() + warmupMillis * 1000000L;
+		int i = 0;
+		while (System.nanoTime() < deadline) {
+			torchLight.computeHorizont(world, observers[i++ % observers.length], horizont);
+		}
+
+		long ops = 0, vertices = 0;
+		long bytesBefore = allocatedBytes();
+		long start = System.nanoTime();
+		deadline = start + measureMillis * 1000000L;
+		long now;
+		do {
+			for (int j = 0; j < observers.length; j++) {
+				torchLight.computeHorizont(world, observers[j], horizont);
+				vertices += horizont.size();
+			}
+			ops += observers.length;
+			now = System.nanoTime();
+		} while (now < deadline);
+		long bytes = allocatedBytes() - bytesBefore;
+
+		double seconds = (now - start) / 1e9;
+		System.out.println(String.format(Locale.ENGLISH, "%-16s %8d %5d %6.0f %12.1f %10.2f %12s",
+			name, world.lines.size(), fov, vDist, ops / seconds, seconds * 1e6 / ops,
+			bytesBefore >= 0 ? String.valueOf(bytes / ops) : "n/a"));
+		//zabrání odstranění výpočtu jako mrtvého kódu
+		if (vertices < 0) {
+			System.out.println(vertices);
+		}
+	}
+
+	private long allocatedBytes() {
+		if (threadBean == null) {
+			return -1;
+		}
+		return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Pozorovatelé rozmístění náhodně v obdélníku opsaném bodům světa
+	 */
+	private static Player[] createObservers(World world, double fov, double vDist) {
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (Point p : world.points) {
+			minX = Math.min(minX, p.x);
+			minY = Math.min(minY, p.y);
+			maxX = Math.max(maxX, p.x);
+			maxY = Math.max(maxY, p.y);
+		}
+
+		Random random = new Random(SEED);
+		Player[] observers = new Player[OBSERVERS];
+		for (int i = 0; i < observers.length; i++) {
+			double x = minX + random.nextDouble() * (maxX - minX);
+			double y = minY + random.nextDouble() * (maxY - minY);
+			observers[i] = new Player(x, y, random.nextDouble() * 2 * Math.PI, fov);
+			observers[i].vDist = vDist;
+			observers[i].vDistSqr = NU.sqr(vDist);
+		}
+		return observers;
+	}
+
+	/**
+	 * Sdílené body mřížky, aby na sebe zdi navazovaly
+	 */
+	private static class LatticePoints {
+
+		private final World world;
+		private final double step;
+		private final Map<Long, Point> points = new HashMap<>();
+
+		public LatticePoints(World world, double step) {
+			this.world = world;
+			this.step = step;
+		}
+
+		public Point get(int i, int j) {
+			long key = ((long) i << 32) | (j & 0xffffffffL);
+			Point p = points.get(key);
+			if (p == null) {
+				p = new Point(i * step, j * step);
+				points.put(key, p);
+				world.points.add(p);
+			}
+			return p;
+		}
+	}
+
+	private static Point addPoint(World world, double x, double y) {
+		Point p = new Point(x, y);
+		world.points.add(p);
+		return p;
+	}
+
+	private static void addLine(World world, Point A, Point B) {
+		world.lines.add(Line.constructFromTwoPoints(A, B));
+	}
+
+	/**
+	 * Čtvercové místnosti s průchody uprostřed stěn, zhruba čtyři lajny na místnost
+	 */
+	private static World createRooms(int lines) {
+		World world = new World();
+		int k = Math.max(1, (int) Math.round(Math.sqrt(lines / 4.0)));
+		double room = 96, door = 24;
+		LatticePoints corners = new LatticePoints(world, room);
+		for (int i = 0; i < k; i++) {
+			for (int j = 0; j < k; j++) {
+				double x = i * room, y = j * room;
+				addLine(world, corners.get(i, j), addPoint(world, x + (room - door) / 2, y));
+				addLine(world, addPoint(world, x + (room + door) / 2, y), corners.get(i + 1, j));
+				addLine(world, corners.get(i, j), addPoint(world, x, y + (room - door) / 2));
+				addLine(world, addPoint(world, x, y + (room + door) / 2), corners.get(i, j + 1));
+			}
+		}
+		return world;
+	}
+
+	/**
+	 * Bludiště z náhodné kostry mřížky, každá zeď mezi nespojenými sousedy je jedna lajna
+	 */
+	private static World createMaze(int lines) {
+		World world = new World();
+		int k = Math.max(2, (int) Math.round(Math.sqrt(lines)));
+		LatticePoints lattice = new LatticePoints(world, 48);
+		Random random = new Random(SEED);
+
+		//openRight[i][j]: průchod mezi buňkami [i; j] a [i + 1; j], openDown obdobně
+		boolean[][] openRight = new boolean[k][k], openDown = new boolean[k][k];
+		boolean[][] visited = new boolean[k][k];
+		int[] stack = new int[k * k];
+		int top = 0;
+		stack[top++] = 0;
+		visited[0][0] = true;
+		int[] candidates = new int[4];
+		while (top > 0) {
+			int cell = stack[top - 1];
+			int i = cell % k, j = cell / k;
+			int count = 0;
+			if (i > 0 && !visited[i - 1][j]) {
+				candidates[count++] = 0;
+			}
+			if (i < k - 1 && !visited[i + 1][j]) {
+				candidates[count++] = 1;
+			}
+			if (j > 0 && !visited[i][j - 1]) {
+				candidates[count++] = 2;
+			}
+			if (j < k - 1 && !visited[i][j + 1]) {
+				candidates[count++] = 3;
+			}
+			if (count == 0) {
+				top--;
+				continue;
+			}
+			int ni = i, nj = j;
+			switch (candidates[random.nextInt(count)]) {
+				case 0:
+					ni = i - 1;
+					openRight[ni][j] = true;
+					break;
+				case 1:
+					ni = i + 1;
+					openRight[i][j] = true;
+					break;
+				case 2:
+					nj = j - 1;
+					openDown[i][nj] = true;
+					break;
+				default:
+					nj = j + 1;
+					openDown[i][j] = true;
+			}
+			visited[ni][nj] = true;
+			stack[top++] = nj * k + ni;
+		}
+
+		for (int i = 0; i < k; i++) {
+			for (int j = 0; j < k; j++) {
+				if (!openRight[i][j]) {
+					addLine(world, lattice.get(i + 1, j), lattice.get(i + 1, j + 1));
+				}
+				if (!openDown[i][j]) {
+					addLine(world, lattice.get(i, j + 1), lattice.get(i + 1, j + 1));
+				}
+			}
+			addLine(world, lattice.get(0, i), lattice.get(0, i + 1));
+			addLine(world, lattice.get(i, 0), lattice.get(i + 1, 0));
+		}
+		return world;
+	}
+
+	/**
+	 * Navzájem nespojené úsečky náhodné délky a směru
+	 */
+	private static World createRandomSegments(int lines) {
+		World world = new World();
+		Random random = new Random(SEED);
+		double side = Math.sqrt(lines) * 40;
+		for (int i = 0; i < lines; i++) {
+			double x = random.nextDouble() * side, y = random.nextDouble() * side;
+			double angle = random.nextDouble() * 2 * Math.PI, length = 5 + random.nextDouble() * 35;
+			addLine(world, addPoint(world, x, y), addPoint(world, x + Math.cos(angle) * length, y + Math.sin(angle) * length));
+		}
+		return world;
+	}
+
+	/**
+	 * Sloupy aproximované šestnáctiúhelníky
+	 */
+	private static World createCircles(int lines) {
+		World world = new World();
+		Random random = new Random(SEED);
+		int segments = 16;
+		int circles = Math.max(1, lines / segments);
+		double side = Math.sqrt(circles) * 120;
+		List<Point> ring = new ArrayList<>(segments);
+		for (int c = 0; c < circles; c++) {
+			double cx = random.nextDouble() * side, cy = random.nextDouble() * side;
+			double radius = 10 + random.nextDouble() * 20;
+			ring.clear();
+			for (int s = 0; s < segments; s++) {
+				double angle = 2 * Math.PI * s / segments;
+				ring.add(addPoint(world, cx + Math.cos(angle) * radius, cy + Math.sin(angle) * radius));
+			}
+			for (int s = 0; s < segments; s++) {
+				addLine(world, ring.get(s), ring.get((s + 1) % segments));
+			}
+		}
+		return world;
+	}
+}
@@ -6,7 +6,6 @@ import java.awt.Rectangle;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelEvent;
-import java.util.List;
 import net.trdlo.zelda.CommandExecuter;
 import net.trdlo.zelda.XY;
 import net.trdlo.zelda.ZeldaFrame;
@@ -20,6 +19,11 @@ abstract class AbstractView implements CommandExecuter {
 
 	public static final double ZOOM_BASE = 1.090507733; //2^(1/8)
 	public static final double ZOOM_MAX = 32;
+	/**
+	 * Posun před zaokrouhlením souřadnic view dolů: body mřížky při zvětšení 2^k padnou na hranici pixelu a bez něj
+	 * by se po posunu pohledu o celé pixely zaokrouhlily jednou nahoru a jednou dolů (viz vrstva v EditorView)
+	 */
+	private static final double VIEW_EPSILON = 1e-6;
 	protected World world;
 	protected double x, y;
 	protected int zoom;
@@ -28,6 +32,7 @@ abstract class AbstractView implements CommandExecuter {
 
 	private XY viewDrag = null;
 	private int renderCount = 0;
+	private final Polygon horizontPoly = new Polygon(), horizontImagePoly = new Polygon();
 
 	public AbstractView(World world) {
 		this.world = world;
@@ -35,15 +40,12 @@ abstract class AbstractView implements CommandExecuter {
 
 	public abstract void update();
 
-	protected final Polygon convertPointListToPoly(List<Point> horiz) {
-		int count = horiz.size();
-		int[] xPoints = new int[count];
-		int[] yPoints = new int[count];
-		for (int i = 0; i < count; i++) {
-			xPoints[i] = worldToViewX(horiz.get(i).x);
-			yPoints[i] = worldToViewY(horiz.get(i).y);
+	protected final Polygon convertPointListToPoly(PolygonBuffer horiz) {
+		horizontPoly.reset();
+		for (int i = 0; i < horiz.size(); i++) {
+			horizontPoly.addPoint(worldToViewX(horiz.getX(i)), worldToViewY(horiz.getY(i)));
 		}
-		return new Polygon(xPoints, yPoints, count);
+		return horizontPoly;
 	}
 
 	/**
@@ -52,23 +54,47 @@ abstract class AbstractView implements CommandExecuter {
 	 * @param horiz
 	 * @return
 	 */
-	protected final Polygon convertPointListToImagePoly(List<Point> horiz, Player observer) {
-		int count = horiz.size();
-		int[] xPoints = new int[count];
-		int[] yPoints = new int[count];
+	protected final Polygon convertPointListToImagePoly(PolygonBuffer horiz, Player observer) {
 		double cx = observer.vDist - observer.x;
 		double cy = observer.vDist - observer.y;
 		double zc = zoomCoef();
-		int i = 0;
-		for (Point p : horiz) {
-			xPoints[i] = (int) ((p.x + cx) * zc);
-			yPoints[i++] = (int) ((p.y + cy) * zc);
+		horizontImagePoly.reset();
+		for (int i = 0; i < horiz.size(); i++) {
+			horizontImagePoly.addPoint((int) ((horiz.getX(i) + cx) * zc), (int) ((horiz.getY(i) + cy) * zc));
 		}
-		return new Polygon(xPoints, yPoints, count);
+		return horizontImagePoly;
 	}
 
 	public abstract void render(Graphics2D graphics, float renderFraction);
 
+	/**
+	 * Část view, do které se kreslí: ořez grafiky omezený na rozměry komponenty
+	 *
+	 * @param graphics
+	 * @return
+	 */
+	protected final Rectangle getVisibleBounds(Graphics2D graphics) {
+		Rectangle visible = new Rectangle(0, 0, componentBounds.width, componentBounds.height);
+		Rectangle clip = graphics.getClipBounds();
+		return clip != null ? visible.intersection(clip) : visible;
+	}
+
+	/**
+	 * Vykreslí texturu v aktuálním zvětšení; MipMap vybere úroveň podle zoomCoef a kreslí jen dlaždice ve visible
+	 *
+	 * @param graphics
+	 * @param t
+	 * @param visible	viz getVisibleBounds
+	 * @return	vykreslený obrázek (nebo null)
+	 */
+	protected final MipMap renderTexture(Graphics2D graphics, Texture t, Rectangle visible) {
+		MipMap img = t.getImage();
+		if (img != null) {
+			img.draw(graphics, worldToViewX(t.getPosition().x), worldToViewY(t.getPosition().y), zoomCoef(), visible);
+		}
+		return img;
+	}
+
 	private void firstRender() {
 		ZeldaFrame.getInstance().setCursor(getCursor(Cursor.NORMAL));
 	}
@@ -144,12 +170,12 @@ abstract class AbstractView implements CommandExecuter {
 
 	protected int worldToViewX(double x) {
 		assert componentBounds != null;
-		return (int) ((componentBounds.width / 2) + (x - this.x) * zoomCoef());
+		return (int) Math.floor((componentBounds.width / 2) + (x - this.x) * zoomCoef() + VIEW_EPSILON);
 	}
 
 	protected int worldToViewY(double y) {
 		assert componentBounds != null;
-		return (int) ((componentBounds.height / 2) + (y - this.y) * zoomCoef());
+		return (int) Math.floor((componentBounds.height / 2) + (y - this.y) * zoomCoef() + VIEW_EPSILON);
 	}
 
 	protected XY worldToView(Point p) {
@@ -0,0 +1,222 @@
+package net.trdlo.zelda.guan;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binární formát mapy (.gmap). Soubor se mapuje do paměti a tabulky pevné délky se čtou přímo, bez parsování
+ * záznamů. Všechna čísla jsou little-endian.
+ *
+ * <pre>
+ * hlavička   int magic "GMAP", int verze, int počet hráčů, int počet bodů, int počet lajn, int délka řetězců
+ * hráči      double x, double y, double orientation, double fov (radiány)
+ * body       int ID, double x, double y, int offset popisu, int délka popisu (bajty v UTF-8)
+ * lajny      int index bodu A, int index bodu B
+ * řetězce    popisy bodů v UTF-8, stejné popisy jsou uložené jen jednou
+ * </pre>
+ *
+ * Verze 1 neukládala ID bodů, při načtení jsou jimi indexy bodů.
+ *
+ * Spuštěním třídy lze převádět mapy mezi textovým a binárním formátem (viz main).
+ */
+public class BinaryMap {
+
+	public static final String EXTENSION = ".gmap";
+
+	private static final int MAGIC = 'G' | 'M' << 8 | 'A' << 16 | 'P' << 24;
+	private static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 6 * 4;
+	private static final int PLAYER_SIZE = 4 * 8;
+	private static final int POINT_SIZE_V1 = 2 * 8 + 2 * 4;
+	private static final int POINT_SIZE = 4 + 2 * 8 + 2 * 4;
+	private static final int LINE_SIZE = 2 * 4;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private BinaryMap() {
+	}
+
+	/**
+	 * Rozpozná binární mapu podle hlavičky (koncovka souboru nerozhoduje)
+	 *
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isBinaryMap(String fileName) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+			if (file.length() < HEADER_SIZE) {
+				return false;
+			}
+			return Integer.reverseBytes(file.readInt()) == MAGIC;
+		}
+	}
+
+	static void load(World world, String fileName) throws Exception {
+		MappedByteBuffer buf;
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (buf.getInt(0) != MAGIC) {
+			throw new Exception("File " + fileName + " is not a binary map!");
+		}
+		int version = buf.getInt(4);
+		if (version != 1 && version != VERSION) {
+			throw new Exception("Unsupported binary map version " + version + "!");
+		}
+		int playerCount = buf.getInt(8), pointCount = buf.getInt(12), lineCount = buf.getInt(16), poolSize = buf.getInt(20);
+
+		if (playerCount < 0 || pointCount < 0 || lineCount < 0 || poolSize < 0) {
+			throw new Exception("Binary map " + fileName + " is truncated. Can't load world!");
+		}
+		//konce tabulek se počítají v long, aby poškozené počty nepřetekly dřív, než se porovnají s délkou souboru;
+		//počty jsou nezáporné, takže stačí porovnat konec poslední tabulky
+		int pointSize = version == 1 ? POINT_SIZE_V1 : POINT_SIZE;
+		long pointsEnd = HEADER_SIZE + (long) playerCount * PLAYER_SIZE;
+		long linesEnd = pointsEnd + (long) pointCount * pointSize;
+		long poolEnd = linesEnd + (long) lineCount * LINE_SIZE;
+		if (poolEnd + poolSize > buf.capacity()) {
+			throw new Exception("Binary map " + fileName + " is truncated. Can't load world!");
+		}
+		int playersOffset = HEADER_SIZE;
+		int pointsOffset = (int) pointsEnd, linesOffset = (int) linesEnd, poolOffset = (int) poolEnd;
+
+		for (int i = 0, off = playersOffset; i < playerCount; i++, off += PLAYER_SIZE) {
+			world.players.add(new Player(buf.getDouble(off), buf.getDouble(off + 8), buf.getDouble(off + 16), buf.getDouble(off + 24)));
+		}
+
+		byte[] pool = new byte[poolSize];
+		buf.position(poolOffset);
+		buf.get(pool);
+		Map<Integer, String> descriptions = new HashMap<>();
+
+		Point[] points = new Point[pointCount];
+		for (int i = 0, off = pointsOffset; i < pointCount; i++, off += pointSize) {
+			int id = version == 1 ? i : buf.getInt(off);
+			int data = version == 1 ? off : off + 4;
+			int descOffset = buf.getInt(data + 16), descLength = buf.getInt(data + 20);
+			if (descLength < 0 || (descLength > 0 && (descOffset < 0 || (long) descOffset + descLength > poolSize))) {
+				throw new Exception("Binary map " + fileName + " is truncated. Can't load world!");
+			}
+			String description = "";
+			if (descLength > 0) {
+				description = descriptions.get(descOffset);
+				if (description == null) {
+					description = new String(pool, descOffset, descLength, UTF_8);
+					descriptions.put(descOffset, description);
+				}
+			}
+			points[i] = new Point(buf.getDouble(data), buf.getDouble(data + 8), description);
+			points[i].id = id;
+			world.points.add(points[i]);
+		}
+
+		for (int i = 0, off = linesOffset; i < lineCount; i++, off += LINE_SIZE) {
+			int idA = buf.getInt(off), idB = buf.getInt(off + 4);
+			if (idA < 0 || idA >= pointCount) {
+				throw new Exception("Point index " + idA + " not found. Can't load world!");
+			}
+			if (idB < 0 || idB >= pointCount) {
+				throw new Exception("Point index " + idB + " not found. Can't load world!");
+			}
+			world.lines.add(Line.constructFromTwoPoints(points[idA], points[idB]));
+		}
+	}
+
+	static void save(WorldSnapshot snapshot, String fileName) throws IOException {
+		int pointCount = snapshot.pointCount, lineCount = snapshot.lineCount;
+
+		//společné řetězce popisů
+		Map<String, Integer> poolOffsets = new HashMap<>();
+		int[] descOffsets = new int[pointCount], descLengths = new int[pointCount];
+		ByteBuffer pool = ByteBuffer.allocate(256);
+		for (int i = 0; i < pointCount; i++) {
+			String description = snapshot.descriptions[i];
+			if (description.isEmpty()) {
+				continue;
+			}
+			byte[] bytes = description.getBytes(UTF_8);
+			Integer offset = poolOffsets.get(description);
+			if (offset == null) {
+				offset = pool.position();
+				if (pool.remaining() < bytes.length) {
+					ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * pool.capacity(), pool.position() + bytes.length));
+					pool.flip();
+					larger.put(pool);
+					pool = larger;
+				}
+				pool.put(bytes);
+				poolOffsets.put(description, offset);
+			}
+			descOffsets[i] = offset;
+			descLengths[i] = bytes.length;
+		}
+
+		int playerCount = snapshot.players.size();
+		long size = HEADER_SIZE + (long) playerCount * PLAYER_SIZE + (long) pointCount * POINT_SIZE + (long) lineCount * LINE_SIZE + pool.position();
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("World is too large for a binary map!");
+		}
+
+		ByteBuffer buf = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(MAGIC).putInt(VERSION).putInt(playerCount).putInt(pointCount).putInt(lineCount).putInt(pool.position());
+		for (Player p : snapshot.players) {
+			buf.putDouble(p.x).putDouble(p.y).putDouble(p.orientation).putDouble(p.fov);
+		}
+		for (int i = 0; i < pointCount; i++) {
+			buf.putInt(snapshot.pointIds[i]).putDouble(snapshot.pointCoords[2 * i]).putDouble(snapshot.pointCoords[2 * i + 1]).putInt(descOffsets[i]).putInt(descLengths[i]);
+		}
+		for (int i = 0; i < lineCount; i++) {
+			buf.putInt(snapshot.lineEnds[2 * i]).putInt(snapshot.lineEnds[2 * i + 1]);
+		}
+		pool.flip();
+		buf.put(pool);
+		buf.flip();
+
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Převod mapy: BinaryMap vstup výstup. Formát vstupu se pozná podle hlavičky, výstup je binární, pokud končí
+	 * na .gmap, jinak textový. Vstup se čte bez deníku úprav, převod tedy vstupní mapu nikdy nezmění.
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("Usage: BinaryMap <input map> <output map>");
+			System.err.println("Output ending with " + EXTENSION + " is written in the binary format, anything else as text.");
+			System.exit(1);
+		}
+		long start = System.nanoTime();
+		World world = new World();
+		if (isBinaryMap(args[0])) {
+			load(world, args[0]);
+		} else {
+			MapParser.load(world, args[0]);
+		}
+		long loaded = System.nanoTime();
+		world.saveToFile(args[1]);
+		long saved = System.nanoTime();
+		System.out.println(String.format("%d points, %d lines: loaded in %.1f ms, saved in %.1f ms",
+			world.points.size(), world.lines.size(), (loaded - start) / 1e6, (saved - loaded) / 1e6));
+	}
+}
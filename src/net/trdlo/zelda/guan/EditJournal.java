@@ -0,0 +1,380 @@
+package net.trdlo.zelda.guan;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+/**
+ * Deník úprav mapy. Svět hlásí každou změnu geometrie (vložení, posun, popis a smazání bodu, přidání, přepojení a
+ * odebrání lajny), deník si do uložení pamatuje jen dotčené body a lajny. Uložení z nich na herním vlákně
+ * sestaví krátké záznamy o jejich výsledném stavu, takže stojí O(počtu změn), ne O(velikosti mapy); připsání na
+ * konec souboru mapa.journal a fsync proběhnou na pozadí (WorldSnapshot.WRITER). Při načtení mapy se deník
+ * přehraje.
+ *
+ * Když deník naroste, přejmenuje se na mapa.journal.old a celá mapa se ze snímku světa zapíše znovu (kompakce);
+ * nové změny jdou do nového deníku. Záznamy odkazují na body jejich trvalým ID (Point.id) a jsou idempotentní, takže
+ * pokud se hra ukončí uprostřed kompakce, přehraje se při načtení starý i nový deník a z uložených změn se nic
+ * neztratí.
+ *
+ * Do souboru se píše jen při uložení (příkaz save nebo automatické ukládání). Úpravy provedené od posledního
+ * uložení jsou jen v paměti a pád hry je ztratí stejně jako dřív.
+ *
+ * <pre>
+ * hlavička       int magic "GJNL", int verze
+ * POINT          byte 1, int ID, double x, double y, UTF popis (nový bod, posun i popis)
+ * DELETE_POINT   byte 2, int ID
+ * ADD_LINE       byte 3, int ID bodu A, int ID bodu B
+ * REMOVE_LINE    byte 4, int ID bodu A, int ID bodu B
+ * </pre>
+ */
+class EditJournal {
+
+	static final String SUFFIX = ".journal";
+	/**
+	 * Deník, jehož obsah se právě zapisuje do mapy; po dokončení kompakce se smaže
+	 */
+	static final String COMPACTED_SUFFIX = ".journal.old";
+
+	private static final int MAGIC = 'G' << 24 | 'J' << 16 | 'N' << 8 | 'L';
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 2 * 4;
+
+	private static final byte POINT = 1;
+	private static final byte DELETE_POINT = 2;
+	private static final byte ADD_LINE = 3;
+	private static final byte REMOVE_LINE = 4;
+
+	/**
+	 * Kompakce začne, když je deník delší než tolik bajtů a zároveň než čtvrtina mapy
+	 */
+	private static final long COMPACT_MIN_SIZE = 256 * 1024;
+
+	private final World world;
+	private final String mapFile;
+	private final File journalFile;
+	private final File compactedFile;
+
+	/**
+	 * Body vložené, posunuté nebo přepsané od posledního uložení
+	 */
+	private final Set<Point> changedPoints = new LinkedHashSet<>();
+	private final Set<Integer> deletedPoints = new LinkedHashSet<>();
+	private final Set<Line> addedLines = new LinkedHashSet<>();
+	/**
+	 * Už zapsané lajny, které se od posledního uložení přepojily nebo odebraly, a ID jejich koncových bodů v zápisu
+	 */
+	private final Map<Line, Long> changedLines = new LinkedHashMap<>();
+
+	/**
+	 * Délka deníku včetně záznamů předaných k zápisu, podle ní se rozhoduje o kompakci
+	 */
+	private long journalLength;
+
+	private EditJournal(World world, String mapFile) {
+		this.world = world;
+		this.mapFile = mapFile;
+		journalFile = new File(mapFile + SUFFIX);
+		compactedFile = new File(mapFile + COMPACTED_SUFFIX);
+		journalLength = journalFile.length();
+	}
+
+	/**
+	 * Přehraje deníky mapy do právě načteného světa a vrátí deník pro další úpravy. Pokud zůstal deník po
+	 * nedokončené kompakci, mapa se zapíše znovu hned.
+	 *
+	 * @param world
+	 * @param mapFile
+	 * @return
+	 * @throws Exception
+	 */
+	static EditJournal open(World world, String mapFile) throws Exception {
+		EditJournal journal = new EditJournal(world, mapFile);
+		if (journal.journalFile.exists() || journal.compactedFile.exists()) {
+			Map<Integer, Point> pointIds = new HashMap<>();
+			for (Point p : world.points) {
+				pointIds.put(p.id, p);
+			}
+			replay(world, journal.compactedFile, pointIds);
+			replay(world, journal.journalFile, pointIds);
+		}
+		if (journal.compactedFile.exists()) {
+			WorldSnapshot.of(world).save(mapFile);
+			journal.journalFile.delete();
+			journal.compactedFile.delete();
+			journal.journalLength = 0;
+		}
+		return journal;
+	}
+
+	/**
+	 * Přehraje jeden deník; neúplný poslední záznam (zápis přerušený pádem) se zahodí a soubor se na něm zkrátí
+	 */
+	private static void replay(World world, File journalFile, Map<Integer, Point> pointIds) throws Exception {
+		if (!journalFile.exists()) {
+			return;
+		}
+		byte[] content = Files.readAllBytes(journalFile.toPath());
+		ByteArrayInputStream bytes = new ByteArrayInputStream(content);
+		DataInputStream in = new DataInputStream(bytes);
+		int valid = 0;
+		if (content.length >= HEADER_SIZE) {
+			if (in.readInt() != MAGIC) {
+				throw new Exception("File " + journalFile + " is not an edit journal!");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new Exception("Unsupported edit journal version " + version + "!");
+			}
+			valid = HEADER_SIZE;
+			try {
+				while (bytes.available() > 0) {
+					apply(world, in, pointIds);
+					valid = content.length - bytes.available();
+				}
+			} catch (EOFException ex) {
+			}
+		}
+		if (valid < content.length) {
+			try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+				raf.setLength(valid);
+			}
+		}
+	}
+
+	private static void apply(World world, DataInputStream in, Map<Integer, Point> pointIds) throws Exception {
+		byte type = in.readByte();
+		switch (type) {
+			case POINT: {
+				int id = in.readInt();
+				double x = in.readDouble(), y = in.readDouble();
+				String description = in.readUTF();
+				Point p = pointIds.get(id);
+				if (p == null) {
+					p = new Point(x, y, description);
+					p.id = id;
+					world.points.add(p);
+					pointIds.put(id, p);
+				} else {
+					p.setXY(x, y);
+					p.setDescription(description);
+				}
+				break;
+			}
+			case DELETE_POINT: {
+				Point p = pointIds.remove(in.readInt());
+				if (p != null) {
+					world.deletePoints(Collections.singleton(p));
+				}
+				break;
+			}
+			case ADD_LINE:
+			case REMOVE_LINE: {
+				Point A = pointIds.get(in.readInt()), B = pointIds.get(in.readInt());
+				if (A == null || B == null || A == B) {
+					break;
+				}
+				Line existing = findLine(A, B);
+				if (type == ADD_LINE && existing == null) {
+					world.lines.add(Line.constructFromTwoPoints(A, B));
+				} else if (type == REMOVE_LINE && existing != null) {
+					world.lines.remove(existing);
+				}
+				break;
+			}
+			default:
+				throw new Exception("Unknown edit journal record " + type + "!");
+		}
+	}
+
+	private static Line findLine(Point A, Point B) {
+		if (A.connectedLines != null) {
+			for (Line l : A.connectedLines) {
+				if (l.A == A && l.B == B) {
+					return l;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static long ends(Line l) {
+		return (long) l.A.id << 32 | (l.B.id & 0xffffffffL);
+	}
+
+	void pointAdded(Point p) {
+		changedPoints.add(p);
+	}
+
+	void pointChanged(Point p) {
+		changedPoints.add(p);
+	}
+
+	void pointRemoved(Point p) {
+		changedPoints.remove(p);
+		deletedPoints.add(p.id);
+	}
+
+	void lineAdded(Line l) {
+		addedLines.add(l);
+	}
+
+	/**
+	 * Volá se před změnou koncových bodů, aby šlo v zápisu odebrat původní lajnu
+	 */
+	void lineEndsChanging(Line l) {
+		if (!addedLines.contains(l) && !changedLines.containsKey(l)) {
+			changedLines.put(l, ends(l));
+		}
+	}
+
+	void lineRemoved(Line l) {
+		if (!addedLines.remove(l) && !changedLines.containsKey(l)) {
+			changedLines.put(l, ends(l));
+		}
+	}
+
+	boolean isDirty() {
+		return !changedPoints.isEmpty() || !deletedPoints.isEmpty() || !addedLines.isEmpty() || !changedLines.isEmpty();
+	}
+
+	/**
+	 * Sestaví záznamy o změnách od posledního uložení a předá je k připsání na konec deníku. Pokud deník přerostl
+	 * mapu, zároveň vezme snímek světa pro kompakci. Výsledek zápisu se hlásí přes World.reportSave.
+	 *
+	 * @param quiet	hlásit jen chyby (automatické ukládání)
+	 * @return	zápis na pozadí, nebo null, pokud nebylo co ukládat
+	 * @throws IOException
+	 */
+	Future<?> save(final boolean quiet) throws IOException {
+		if (!isDirty()) {
+			if (!quiet) {
+				world.reportSave("No changes to save");
+			}
+			return null;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final int records = writeChanges(new DataOutputStream(bytes));
+		final byte[] content = bytes.toByteArray();
+		journalLength += content.length;
+
+		WorldSnapshot snapshot = null;
+		if (journalLength > Math.max(COMPACT_MIN_SIZE, new File(mapFile).length() / 4)) {
+			snapshot = WorldSnapshot.of(world);
+			journalLength = 0;
+		}
+		final WorldSnapshot compactFrom = snapshot;
+		return WorldSnapshot.WRITER.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					append(content);
+					boolean compacted = compactFrom != null && compact(compactFrom);
+					if (!quiet) {
+						world.reportSave(String.format("Saved %d changes to %s%s", records, journalFile.getName(), compacted ? ", map compacted" : ""));
+					}
+				} catch (IOException ex) {
+					world.reportSave("Could not save file: " + ex.toString());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Pořadí záznamů zaručuje, že lajny se odebírají dřív než jejich body a přidávají až po nich
+	 *
+	 * @return	počet záznamů
+	 */
+	private int writeChanges(DataOutputStream out) throws IOException {
+		int records = 0;
+		for (Map.Entry<Line, Long> entry : changedLines.entrySet()) {
+			Line l = entry.getKey();
+			long original = entry.getValue();
+			boolean present = l.world == world;
+			if (present && ends(l) == original) {
+				continue;
+			}
+			writeLine(out, REMOVE_LINE, (int) (original >> 32), (int) original);
+			records++;
+			if (present) {
+				addedLines.add(l);
+			}
+		}
+		for (int id : deletedPoints) {
+			out.writeByte(DELETE_POINT);
+			out.writeInt(id);
+			records++;
+		}
+		for (Point p : changedPoints) {
+			out.writeByte(POINT);
+			out.writeInt(p.id);
+			out.writeDouble(p.x);
+			out.writeDouble(p.y);
+			out.writeUTF(p.getDescription());
+			records++;
+		}
+		for (Line l : addedLines) {
+			writeLine(out, ADD_LINE, l.A.id, l.B.id);
+			records++;
+		}
+		changedLines.clear();
+		deletedPoints.clear();
+		changedPoints.clear();
+		addedLines.clear();
+		return records;
+	}
+
+	private static void writeLine(DataOutputStream out, byte type, int idA, int idB) throws IOException {
+		out.writeByte(type);
+		out.writeInt(idA);
+		out.writeInt(idB);
+	}
+
+	/**
+	 * Připíše záznamy na konec deníku (nový deník začne hlavičkou) a počká na jejich zápis na disk; běží ve
+	 * vlákně WRITER
+	 */
+	private void append(byte[] content) throws IOException {
+		boolean empty = journalFile.length() == 0;
+		try (FileOutputStream file = new FileOutputStream(journalFile, true)) {
+			DataOutputStream out = new DataOutputStream(file);
+			if (empty) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+			}
+			out.write(content);
+			file.getChannel().force(false);
+		}
+	}
+
+	/**
+	 * Odloží deník stranou a zapíše mapu ze snímku; běží ve vlákně WRITER. Pokud ještě existuje deník
+	 * z předchozí kompakce, která selhala, čeká se s kompakcí na příští načtení mapy.
+	 *
+	 * @return	zda se mapa zapsala
+	 */
+	private boolean compact(WorldSnapshot snapshot) throws IOException {
+		if (compactedFile.exists()) {
+			return false;
+		}
+		if (!journalFile.renameTo(compactedFile)) {
+			throw new IOException("Could not rename " + journalFile + " to " + compactedFile);
+		}
+		snapshot.save(mapFile);
+		compactedFile.delete();
+		return true;
+	}
+}
@@ -4,15 +4,21 @@ import net.trdlo.zelda.XY;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.Polygon;
+import java.awt.Rectangle;
 import java.awt.Stroke;
+import java.awt.Transparency;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -28,6 +34,33 @@ class EditorView extends AbstractView {
 
 	private static final java.awt.Cursor DEFAULT_CURSOR = java.awt.Cursor.getPredefinedCursor(java.awt.Cursor.DEFAULT_CURSOR);
 	private static final java.awt.Cursor DRAG_CURSOR = java.awt.Cursor.getPredefinedCursor(java.awt.Cursor.HAND_CURSOR);
+	/**
+	 * O kolik pixelů se rozšíří výřez pro body vlevo a nahoře, aby se nevynechaly popisky bodů mimo obrazovku
+	 */
+	private static final int DESCRIPTION_MARGIN = 256;
+	/**
+	 * Pod tímto zvětšením se body kreslí po shlucích (PointClusters), jejichž čtverce mají na obrazovce aspoň
+	 * CLUSTER_SIZE pixelů
+	 */
+	private static final double LOD_MAX_ZOOM = 0.5;
+	private static final int CLUSTER_SIZE = 32;
+	/**
+	 * Pod tímto zvětšením se nekreslí popisky bodů
+	 */
+	private static final double DESCRIPTION_MIN_ZOOM = 0.75;
+	private static final Color CLUSTER_COLOR = new Color(0, 192, 0, 96);
+	/**
+	 * Posun pohledu se ve vrstvě provede posunutím obrazu, jen pokud je o celé pixely (s touto tolerancí)
+	 */
+	private static final double SHIFT_TOLERANCE = 0.01;
+	/**
+	 * Víc změněných oblastí najednou se překreslí jako jejich obálka
+	 */
+	private static final int MAX_LAYER_REGIONS = 8;
+	/**
+	 * Horizont se kreslí přes vrstvu, průhledně, aby pod ním zůstaly vidět lajny a body
+	 */
+	private static final Color HORIZONT_COLOR = new Color(64, 64, 64, 160);
 
 	private boolean boundsDebug = false;
 
@@ -58,10 +91,44 @@ class EditorView extends AbstractView {
 
 	private StringBuilder descBuilder;
 
-	private List<Point> horizont;
+	private PolygonBuffer horizont;
 	private Polygon horizPoly;
 	boolean horizontEnabled = true;
 
+	/**
+	 * Pole pro dotazy do mřížek světa (používají se znovu) a počty bodů a lajn mimo výřez
+	 */
+	private final Set<Line> visibleLines = new LinkedHashSet<>();
+	private final List<Point> visiblePoints = new ArrayList<>();
+	private final List<Line> crossCandidates = new ArrayList<>();
+	private final List<PointClusters.Cluster> visibleClusters = new ArrayList<>();
+	private final Set<Line> overlayLines = new LinkedHashSet<>();
+	private int offscreenPoints, offscreenLines;
+
+	/**
+	 * Vyrovnávací vrstva se statickým obsahem (textury, mřížka, lajny a body) nakreslená pro pohled z
+	 * [layerX; layerY] při zvětšení layerZoom; každý snímek se na ni kreslí jen překryvy. Po změně geometrie se
+	 * překreslí jen změněné oblasti, po posunu pohledu se obraz posune a dokreslí se odkryté pruhy.
+	 */
+	private BufferedImage layer, layerSwap;
+	private World layerWorld;
+	private double layerX, layerY, layerZoom;
+	private int layerGridDensity;
+	/**
+	 * Body výběru a jejich lajny ve vrstvě chybí, protože se kreslí posunuté nebo s rozepsaným popisem
+	 */
+	private boolean layerExcludesSelection;
+	private Line layerCircleLine;
+	/**
+	 * Obrázky textur, jak jsou nakreslené ve vrstvě (zástupný obrázek se po načtení textury překreslí)
+	 */
+	private final Map<Texture, MipMap> layerTextures = new HashMap<>();
+	/**
+	 * Průsečíky lajn bez společného bodu nalezené při kreslení vrstvy (souřadnice světa)
+	 */
+	private final List<Point> layerCrossings = new ArrayList<>();
+	private final List<Rectangle2D.Double> dirtyRegions = new ArrayList<>();
+
 	public EditorView(World world, double x, double y, int zoom) {
 		super(world);
 
@@ -189,23 +256,32 @@ class EditorView extends AbstractView {
 		}
 	}
 
-	private void renderCrossingDebug(Graphics2D graphics, Line line) {
-		if ((System.nanoTime() / 500000000L & 1) == 0) {
-			return;
-		}
-
+	private void findCrossings(Line line, double x1, double y1, double x2, double y2) {
 		Point iP;
-		for (Line cross : world.lines) {
+		crossCandidates.clear();
+		world.lineGrid.getLinesIn(Math.min(line.A.x, line.B.x), Math.min(line.A.y, line.B.y), Math.max(line.A.x, line.B.x), Math.max(line.A.y, line.B.y), crossCandidates);
+		for (Line cross : crossCandidates) {
 			if (cross != line && (iP = cross.getSegmentSegmentIntersection(line)) != null) {
-				if (cross.A != line.A && cross.B != line.B && cross.A != line.B && cross.B != line.A) {
-					XY iP1 = worldToView(iP);
-					graphics.setColor(Color.RED);
-					graphics.drawArc(iP1.x - 8, iP1.y - 8, 16, 16, 0, 360);
+				if (cross.A != line.A && cross.B != line.B && cross.A != line.B && cross.B != line.A && iP.inRect(x1, y1, x2, y2)) {
+					layerCrossings.add(iP);
 				}
 			}
 		}
 	}
 
+	private void renderCrossingDebug(Graphics2D graphics) {
+		if ((System.nanoTime() / 500000000L & 1) == 0) {
+			return;
+		}
+
+		graphics.setStroke(DEFAULT_STROKE);
+		graphics.setColor(Color.RED);
+		for (Point iP : layerCrossings) {
+			XY iP1 = worldToView(iP);
+			graphics.drawArc(iP1.x - 8, iP1.y - 8, 16, 16, 0, 360);
+		}
+	}
+
 	private void renderPoint(Graphics2D graphics, double px, double py, String desc) {
 		int vx = worldToViewX(px);
 		int vy = worldToViewY(py);
@@ -224,15 +300,329 @@ class EditorView extends AbstractView {
 		renderPoint(graphics, p.x, p.y, p.description);
 	}
 
-	@Override
-	public void render(Graphics2D graphics, float renderFraction) {
+	private boolean isLod() {
+		return zoomCoef() < LOD_MAX_ZOOM;
+	}
+
+	/**
+	 * Body výběru a jejich lajny se kreslí jinde, než leží, nebo s jiným popisem
+	 */
+	private boolean isSelectionDisplaced() {
+		return (moveStart != null && moveEnd != null) || isTyping();
+	}
+
+	/**
+	 * Připraví vrstvu pro aktuální pohled: při změně rozměrů, zvětšení nebo mřížky ji nakreslí celou, při posunu
+	 * posune obraz a dokreslí odkryté pruhy a nakonec překreslí oblasti změněné od minula
+	 *
+	 * @return	true, pokud se vrstva změnila
+	 */
+	private boolean updateLayer() {
+		int w = componentBounds.width, h = componentBounds.height;
+
+		dirtyRegions.clear();
+		world.takeDirtyRegions(dirtyRegions);
+		boolean excludes = isSelectionDisplaced();
+		if (excludes != layerExcludesSelection) {
+			markPointsDirty(selection);
+			markPointsDirty(tempSelection);
+			layerExcludesSelection = excludes;
+		}
+		if (circleLine != layerCircleLine) {
+			if (layerCircleLine != null) {
+				markLineDirty(layerCircleLine);
+			}
+			if (circleLine != null) {
+				markLineDirty(circleLine);
+			}
+			layerCircleLine = circleLine;
+		}
+		markTexturesDirty();
+
+		boolean full = layer == null || layer.getWidth() != w || layer.getHeight() != h || layerWorld != world || layerZoom != zoomCoef() || layerGridDensity != gridDensity;
+		boolean changed = false;
+		if (!full && (layerX != x || layerY != y)) {
+			double sx = (layerX - x) * layerZoom, sy = (layerY - y) * layerZoom;
+			long ix = Math.round(sx), iy = Math.round(sy);
+			if (Math.abs(sx - ix) > SHIFT_TOLERANCE || Math.abs(sy - iy) > SHIFT_TOLERANCE || Math.abs(ix) >= w || Math.abs(iy) >= h) {
+				full = true;
+			} else {
+				layerX = x;
+				layerY = y;
+				shiftLayer((int) ix, (int) iy);
+				changed = true;
+			}
+		}
+
+		if (full) {
+			if (layer == null || layer.getWidth() != w || layer.getHeight() != h) {
+				layer = TextureCache.createImage(w, h, Transparency.OPAQUE);
+				layerSwap = TextureCache.createImage(w, h, Transparency.OPAQUE);
+			}
+			layerWorld = world;
+			layerZoom = zoomCoef();
+			layerGridDensity = gridDensity;
+			layerX = x;
+			layerY = y;
+			layerTextures.clear();
+			layerCrossings.clear();
+			renderLayer(new Rectangle(0, 0, w, h));
+			return true;
+		}
+
+		Rectangle screen = new Rectangle(0, 0, w, h), all = null;
+		List<Rectangle> regions = new ArrayList<>();
+		for (Rectangle2D.Double r : dirtyRegions) {
+			Rectangle region = toLayerRegion(r).intersection(screen);
+			if (!region.isEmpty()) {
+				regions.add(region);
+				all = all == null ? region : all.union(region);
+			}
+		}
+		if (regions.size() > MAX_LAYER_REGIONS) {
+			regions.clear();
+			regions.add(all);
+		}
+		for (Rectangle region : regions) {
+			renderLayer(region);
+		}
+		return changed || !regions.isEmpty();
+	}
+
+	/**
+	 * Posune obraz vrstvy o [dx; dy] pixelů a dokreslí odkryté pruhy
+	 */
+	private void shiftLayer(int dx, int dy) {
+		int w = layer.getWidth(), h = layer.getHeight();
+		Graphics2D g = layerSwap.createGraphics();
+		g.drawImage(layer, dx, dy, null);
+		g.dispose();
+		BufferedImage swap = layer;
+		layer = layerSwap;
+		layerSwap = swap;
+
+		//průsečíky mimo pohled by se už nikdy nesmazaly
+		double x1 = viewToWorldX(0), y1 = viewToWorldY(0), x2 = viewToWorldX(w), y2 = viewToWorldY(h);
+		Iterator<Point> it = layerCrossings.iterator();
+		while (it.hasNext()) {
+			if (!it.next().inRect(x1, y1, x2, y2)) {
+				it.remove();
+			}
+		}
+
+		if (dx > 0) {
+			renderLayer(new Rectangle(0, 0, dx, h));
+		} else if (dx < 0) {
+			renderLayer(new Rectangle(w + dx, 0, -dx, h));
+		}
+		if (dy > 0) {
+			renderLayer(new Rectangle(0, 0, w, dy));
+		} else if (dy < 0) {
+			renderLayer(new Rectangle(0, h + dy, w, -dy));
+		}
+	}
+
+	private void markPointsDirty(Set<Point> points) {
+		for (Point p : points) {
+			dirtyRegions.add(new Rectangle2D.Double(p.x, p.y, 0, 0));
+			if (p.connectedLines != null) {
+				for (Line line : p.connectedLines) {
+					markLineDirty(line);
+				}
+			}
+		}
+	}
+
+	private void markLineDirty(Line line) {
+		dirtyRegions.add(new Rectangle2D.Double(Math.min(line.A.x, line.B.x), Math.min(line.A.y, line.B.y), Math.abs(line.A.x - line.B.x), Math.abs(line.A.y - line.B.y)));
+	}
+
+	/**
+	 * Označí oblasti textur, jejichž obrázek se změnil od nakreslení do vrstvy (načtení, zahození z cache,
+	 * přidání nebo odebrání textury)
+	 */
+	private void markTexturesDirty() {
 		for (Texture t : world.textures) {
-			XY vPos = worldToView(t.getPosition());
-			Image img = t.getImage();
-			graphics.drawImage(img, vPos.x, vPos.y, (int) (img.getWidth(null) * zoomCoef()), (int) (img.getHeight(null) * zoomCoef()), null);
+			MipMap img = t.getImage(), drawn = layerTextures.get(t);
+			if (img != drawn) {
+				if (drawn != null) {
+					dirtyRegions.add(new Rectangle2D.Double(t.getPosition().x, t.getPosition().y, drawn.getWidth(), drawn.getHeight()));
+				}
+				if (img != null) {
+					dirtyRegions.add(new Rectangle2D.Double(t.getPosition().x, t.getPosition().y, img.getWidth(), img.getHeight()));
+				}
+			}
 		}
+		Iterator<Map.Entry<Texture, MipMap>> it = layerTextures.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Texture, MipMap> entry = it.next();
+			if (!world.textures.contains(entry.getKey())) {
+				if (entry.getValue() != null) {
+					dirtyRegions.add(new Rectangle2D.Double(entry.getKey().getPosition().x, entry.getKey().getPosition().y, entry.getValue().getWidth(), entry.getValue().getHeight()));
+				}
+				it.remove();
+			}
+		}
+	}
 
-		renderGrid(graphics);
+	/**
+	 * Obdélník view, který se musí překreslit po změně v obdélníku světa: s okraji pro značky a popisky bodů, ve
+	 * shlucích zarovnaný na celé čtverce shluků
+	 */
+	private Rectangle toLayerRegion(Rectangle2D.Double r) {
+		double x1 = r.x, y1 = r.y, x2 = r.x + r.width, y2 = r.y + r.height;
+		if (isLod()) {
+			double size = PointClusters.getCellSize(PointClusters.getLevel(CLUSTER_SIZE / zoomCoef()));
+			x1 = Math.floor(x1 / size) * size;
+			y1 = Math.floor(y1 / size) * size;
+			x2 = Math.ceil(x2 / size) * size;
+			y2 = Math.ceil(y2 / size) * size;
+		}
+		int vx1 = worldToViewX(x1) - CLUSTER_SIZE, vy1 = worldToViewY(y1) - CLUSTER_SIZE;
+		int vx2 = worldToViewX(x2) + DESCRIPTION_MARGIN, vy2 = worldToViewY(y2) + CLUSTER_SIZE;
+		return new Rectangle(vx1, vy1, vx2 - vx1, vy2 - vy1);
+	}
+
+	/**
+	 * Nakreslí do vrstvy obsah oblasti view: textury, mřížku, lajny a body (nebo jejich shluky) bez zvýraznění
+	 */
+	private void renderLayer(Rectangle region) {
+		Graphics2D g = layer.createGraphics();
+		g.setClip(region);
+		g.setBackground(Color.BLACK);
+		g.clearRect(region.x, region.y, region.width, region.height);
+
+		for (Texture t : world.textures) {
+			layerTextures.put(t, renderTexture(g, t, region));
+		}
+
+		renderGrid(g);
+
+		double x1 = viewToWorldX(region.x), y1 = viewToWorldY(region.y);
+		double x2 = viewToWorldX(region.x + region.width), y2 = viewToWorldY(region.y + region.height);
+		Iterator<Point> it = layerCrossings.iterator();
+		while (it.hasNext()) {
+			if (it.next().inRect(x1, y1, x2, y2)) {
+				it.remove();
+			}
+		}
+
+		double lineMargin = 2 / zoomCoef();
+		visibleLines.clear();
+		world.lineGrid.getLinesIn(x1 - lineMargin, y1 - lineMargin, x2 + lineMargin, y2 + lineMargin, visibleLines);
+		g.setStroke(Line.DEFAULT_STROKE);
+		g.setColor(Line.DEFAULT_COLOR);
+		for (Line line : visibleLines) {
+			if (line == circleLine || (layerExcludesSelection && (selection.contains(line.A) || selection.contains(line.B)))) {
+				continue;
+			}
+			int vAx = worldToViewX(line.A.x), vAy = worldToViewY(line.A.y), vBx = worldToViewX(line.B.x), vBy = worldToViewY(line.B.y);
+			//lajna kratší než pixel by se zobrazila jen jako tečka
+			if (vAx == vBx && vAy == vBy) {
+				continue;
+			}
+			g.drawLine(vAx, vAy, vBx, vBy);
+			findCrossings(line, x1, y1, x2, y2);
+		}
+
+		if (isLod()) {
+			int level = PointClusters.getLevel(CLUSTER_SIZE / zoomCoef());
+			double clusterMargin = CLUSTER_SIZE / zoomCoef();
+			visibleClusters.clear();
+			world.pointClusters.getClustersIn(level, x1 - 2 * clusterMargin, y1 - clusterMargin, x2 + clusterMargin, y2 + clusterMargin, visibleClusters);
+			renderClusters(g);
+		} else {
+			double pointMargin = Point.DISPLAY_SIZE / zoomCoef(), descMargin = DESCRIPTION_MARGIN / zoomCoef();
+			boolean showDescriptions = zoomCoef() >= DESCRIPTION_MIN_ZOOM;
+			visiblePoints.clear();
+			world.pointGrid.getPointsIn(x1 - descMargin, y1 - 2 * pointMargin, x2 + pointMargin, y2 + pointMargin, visiblePoints);
+			g.setStroke(Point.DEFAULT_STROKE);
+			g.setColor(Point.DEFAULT_COLOR);
+			for (Point point : visiblePoints) {
+				if (layerExcludesSelection && (selection.contains(point) || tempSelection.contains(point))) {
+					continue;
+				}
+				renderPoint(g, point.x, point.y, showDescriptions ? point.description : "");
+			}
+		}
+		g.dispose();
+	}
+
+	/**
+	 * Shluk s jedním bodem se kreslí jako bod, větší jako vyplněný čtverec s počtem bodů
+	 */
+	private void renderClusters(Graphics2D graphics) {
+		graphics.setStroke(Point.DEFAULT_STROKE);
+		graphics.setFont(Point.DESCRIPTION_FONT);
+		for (PointClusters.Cluster c : visibleClusters) {
+			int vx = worldToViewX(c.getX()), vy = worldToViewY(c.getY());
+			if (c.getCount() == 1) {
+				graphics.setColor(Point.DEFAULT_COLOR);
+				graphics.drawRect(vx - Point.DISPLAY_SIZE / 2, vy - Point.DISPLAY_SIZE / 2, Point.DISPLAY_SIZE, Point.DISPLAY_SIZE);
+				continue;
+			}
+			graphics.setColor(CLUSTER_COLOR);
+			graphics.fillRect(vx - CLUSTER_SIZE / 4, vy - CLUSTER_SIZE / 4, CLUSTER_SIZE / 2, CLUSTER_SIZE / 2);
+			graphics.setColor(Point.DESCRIPTION_COLOR);
+			graphics.drawString(Integer.toString(c.getCount()), vx - CLUSTER_SIZE / 4, vy + CLUSTER_SIZE / 4);
+		}
+	}
+
+	/**
+	 * Spočítá body a lajny mimo výřez pohledu pro stavový řádek; volá se jen po změně vrstvy
+	 */
+	private void countOffscreen() {
+		double x1 = viewToWorldX(0), y1 = viewToWorldY(0);
+		double x2 = viewToWorldX(componentBounds.width), y2 = viewToWorldY(componentBounds.height);
+
+		visibleLines.clear();
+		world.lineGrid.getLinesIn(x1, y1, x2, y2, visibleLines);
+		offscreenLines = world.lines.size() - visibleLines.size();
+
+		if (isLod()) {
+			visibleClusters.clear();
+			world.pointClusters.getClustersIn(PointClusters.getLevel(CLUSTER_SIZE / zoomCoef()), x1, y1, x2, y2, visibleClusters);
+			int clustered = 0;
+			for (PointClusters.Cluster c : visibleClusters) {
+				clustered += c.getCount();
+			}
+			offscreenPoints = world.points.size() - clustered;
+		} else {
+			visiblePoints.clear();
+			world.pointGrid.getPointsIn(x1, y1, x2, y2, visiblePoints);
+			offscreenPoints = world.points.size() - visiblePoints.size();
+		}
+	}
+
+	private void renderStatus(Graphics2D graphics) {
+		graphics.setColor(Color.GRAY);
+		graphics.setFont(Point.DESCRIPTION_FONT);
+		graphics.drawString(String.format("%d points, %d lines off-screen", offscreenPoints, offscreenLines), 10, componentBounds.height - 10);
+	}
+
+	/**
+	 * Bod výběru posunutý o [dx; dy], pokud leží v oblasti světa area
+	 */
+	private void renderSelectedPoint(Graphics2D graphics, Point point, double dx, double dy, boolean showDescriptions, Rectangle2D.Double area) {
+		double px = point.x + dx, py = point.y + dy;
+		if (!area.contains(px, py) || !world.points.contains(point)) {
+			return;
+		}
+		graphics.setStroke(Point.SELECTION_STROKE);
+		graphics.setColor(Point.SELECTION_COLOR);
+		if (isTyping()) {
+			renderPoint(graphics, px, py, descBuilder.toString() + ((System.nanoTime() / 500000000L & 1) == 0 ? "_" : ""));
+		} else {
+			renderPoint(graphics, px, py, showDescriptions ? point.description : "");
+		}
+	}
+
+	@Override
+	public void render(Graphics2D graphics, float renderFraction) {
+		if (updateLayer()) {
+			countOffscreen();
+		}
+		graphics.drawImage(layer, 0, 0, null);
 
 		if (boundsDebug) {
 			renderBoundsDebug(graphics);
@@ -244,9 +634,43 @@ class EditorView extends AbstractView {
 			dy = moveEnd.getY() - moveStart.getY();
 		}
 
-		graphics.setStroke(Line.DEFAULT_STROKE);
-		graphics.setColor(Line.DEFAULT_COLOR);
-		for (Line line : world.lines) {
+		if (horizontEnabled) {
+			Player player = world.getTestPlayer();
+			horizont = world.getHorizont(player);
+			horizPoly = convertPointListToPoly(horizont);
+
+			Point pp = new Point(player.x, player.y);
+
+			graphics.setStroke(DEFAULT_STROKE);
+			graphics.setColor(HORIZONT_COLOR);
+			graphics.fillPolygon(horizPoly);
+			graphics.setColor(Color.PINK);
+			graphics.drawPolygon(horizPoly);
+
+			graphics.setStroke(DASHED_STROKE);
+			int startAngle = -NU.radToDeg(player.orientation - player.fov / 2);
+			if ((System.nanoTime() / 1000000000L & 1) == 0) {
+				startAngle += (int) ((System.nanoTime() % 1000000000L) * 360 / 1000000000L);
+			}
+			graphics.drawArc(worldToViewX(pp.x - player.vDist), worldToViewY(pp.y - player.vDist), (int) (player.vDist * 2 * zoomCoef()), (int) (player.vDist * 2 * zoomCoef()), startAngle, -NU.radToDeg(player.fov));
+		}
+
+		//překryvy: posouvané, vybrané a zvýrazněné lajny a body, které ve vrstvě nejsou nebo jsou jinou barvou
+		overlayLines.clear();
+		if (layerExcludesSelection) {
+			for (Point p : selection) {
+				if (p.connectedLines != null) {
+					overlayLines.addAll(p.connectedLines);
+				}
+			}
+		}
+		if (selectedLine != null && world.lines.contains(selectedLine)) {
+			overlayLines.add(selectedLine);
+		}
+		if (nearestLine != null && world.lines.contains(nearestLine)) {
+			overlayLines.add(nearestLine);
+		}
+		for (Line line : overlayLines) {
 			if (line == circleLine) {
 				continue;
 			}
@@ -279,61 +703,27 @@ class EditorView extends AbstractView {
 				graphics.setColor(Color.PINK);
 				graphics.drawString(String.format("len = %.2f", line.getLength()), worldToViewX((lAx + lBx) / 2), worldToViewY((lAy + lBy) / 2));
 			}
-			renderCrossingDebug(graphics, line);
 		}
 
-		if (horizontEnabled) {
-			Player player = world.getTestPlayer();
-			horizont = TorchLight.getPointList(world.lines, player);
-			horizPoly = convertPointListToPoly(horizont);
-
-			Point pp = new Point(player.x, player.y);
-
-			graphics.setStroke(DEFAULT_STROKE);
-			graphics.setColor(Color.DARK_GRAY);
-			graphics.fillPolygon(horizPoly);
-			graphics.setColor(Color.PINK);
-			graphics.drawPolygon(horizPoly);
-//			Point first = horizont.get(0), prev = null;
-//			for (Point p : horizont) {
-//				if (prev != null) {
-//					graphics.drawLine(worldToViewX(prev.x), worldToViewY(prev.y), worldToViewX(p.x), worldToViewY(p.y));
-//				}
-//				prev = p;
-//				renderPoint(graphics, p);
-//			}
-//			graphics.drawLine(worldToViewX(prev.x), worldToViewY(prev.y), worldToViewX(first.x), worldToViewY(first.y));
+		renderCrossingDebug(graphics);
 
-			graphics.setStroke(DASHED_STROKE);
-			int startAngle = -NU.radToDeg(player.orientation - player.fov / 2);
-			if ((System.nanoTime() / 1000000000L & 1) == 0) {
-				startAngle += (int) ((System.nanoTime() % 1000000000L) * 360 / 1000000000L);
-			}
-			graphics.drawArc(worldToViewX(pp.x - player.vDist), worldToViewY(pp.y - player.vDist), (int) (player.vDist * 2 * zoomCoef()), (int) (player.vDist * 2 * zoomCoef()), startAngle, -NU.radToDeg(player.fov));
+		boolean showDescriptions = zoomCoef() >= DESCRIPTION_MIN_ZOOM;
+		double pointMargin = Point.DISPLAY_SIZE / zoomCoef(), descMargin = DESCRIPTION_MARGIN / zoomCoef();
+		double x1 = viewToWorldX(0) - descMargin, y1 = viewToWorldY(0) - 2 * pointMargin;
+		Rectangle2D.Double area = new Rectangle2D.Double(x1, y1, viewToWorldX(componentBounds.width) + pointMargin - x1, viewToWorldY(componentBounds.height) + pointMargin - y1);
+		for (Point point : selection) {
+			renderSelectedPoint(graphics, point, dx, dy, showDescriptions, area);
 		}
-
-		for (Point point : world.points) {
-			double px = point.x, py = point.y;
-			if (selection.contains(point) || tempSelection.contains(point)) {
-				graphics.setStroke(Point.SELECTION_STROKE);
-				graphics.setColor(Point.SELECTION_COLOR);
-				px += dx;
-				py += dy;
-				if (isTyping()) {
-					renderPoint(graphics, px, py, descBuilder.toString() + ((System.nanoTime() / 500000000L & 1) == 0 ? "_" : ""));
-				} else {
-					renderPoint(graphics, px, py, point.description);
-				}
-			} else if (point == nearestPoint) {
-				graphics.setStroke(Point.DEFAULT_STROKE);
-				graphics.setColor(Point.SELECTION_COLOR);
-				renderPoint(graphics, px, py, point.description);
-			} else {
-				graphics.setStroke(Point.DEFAULT_STROKE);
-				graphics.setColor(Point.DEFAULT_COLOR);
-				renderPoint(graphics, px, py, point.description);
+		for (Point point : tempSelection) {
+			if (!selection.contains(point)) {
+				renderSelectedPoint(graphics, point, dx, dy, showDescriptions, area);
 			}
 		}
+		if (nearestPoint != null && world.points.contains(nearestPoint) && !selection.contains(nearestPoint) && !tempSelection.contains(nearestPoint)) {
+			graphics.setStroke(Point.DEFAULT_STROKE);
+			graphics.setColor(Point.SELECTION_COLOR);
+			renderPoint(graphics, nearestPoint.x, nearestPoint.y, showDescriptions ? nearestPoint.description : "");
+		}
 
 		//renderReflectionsDebug(graphics);
 		if (dragStart != null && dragEnd != null) {
@@ -380,6 +770,8 @@ class EditorView extends AbstractView {
 			int vy2 = vy + (int) (Math.sin(p.orientation) * 16);
 			graphics.drawLine(vx, vy, vx2, vy2);
 		}
+
+		renderStatus(graphics);
 	}
 
 	private boolean isBoundsDebug() {
@@ -568,15 +960,18 @@ class EditorView extends AbstractView {
 	}
 
 	private void insertPointAtLine() {
-		if (nearestLine != null) {
-			Point p = nearestLine.getNearestPointInSegment(viewToWorld(ZeldaFrame.getInstance().getMouseXY()));
+		//lajna pod kurzorem se hledá znovu v mřížce, zvýraznění mohlo zůstat z předchozího pohybu myši
+		XY mouseXY = ZeldaFrame.getInstance().getMouseXY();
+		Line line = getLineAt(mouseXY.x, mouseXY.y, Line.HIGHLIGHT_MAX_DISTANCE);
+		if (line != null) {
+			Point p = line.getNearestPointInSegment(viewToWorld(mouseXY));
 			if (p != null) {
 				if (snapToGrid && gridDensity != -1) {
 					p.roundToGrid(gridStep);
 				}
 				world.points.add(p);
-				Point b = nearestLine.getB();
-				nearestLine.setB(p);
+				Point b = line.getB();
+				line.setB(p);
 				world.lines.add(Line.constructFromTwoPoints(p, b));
 			}
 		}
@@ -1,17 +1,16 @@
 package net.trdlo.zelda.guan;
 
-import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics2D;
-import java.awt.Image;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.Shape;
 import java.awt.Toolkit;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelEvent;
 import java.awt.image.BufferedImage;
-import java.util.List;
 import net.trdlo.zelda.Console;
-import net.trdlo.zelda.NU;
 import net.trdlo.zelda.XY;
 import net.trdlo.zelda.ZeldaFrame;
 
@@ -19,7 +18,7 @@ class GameView extends AbstractView {
 
 	private static final java.awt.Cursor DEFAULT_CURSOR = Toolkit.getDefaultToolkit().createCustomCursor(new BufferedImage(3, 3, BufferedImage.TYPE_INT_ARGB), new java.awt.Point(0, 0), "blank");
 
-	private BufferedImage gradientImage = null;
+	private final LightBuffer lightBuffer = new LightBuffer();
 
 	public GameView(World world) {
 		super(world);
@@ -52,44 +51,34 @@ class GameView extends AbstractView {
 	@Override
 	public void render(Graphics2D graphics, float renderFraction) {
 		Player player = world.getTestPlayer();
-
-		//TODO: bude se renderovat jen do čtverce s baterkou
+		PolygonBuffer horizont = world.getHorizont(player);
+
+		//textury se kreslí jen do osvětlené oblasti, ostatní by stejně zakryla tma
+		Polygon litPoly = convertPointListToPoly(horizont);
+		Rectangle litBounds = litPoly.getBounds();
+		Shape clip = graphics.getClip();
+		graphics.clipRect(litBounds.x, litBounds.y, litBounds.width, litBounds.height);
+		Rectangle visible = getVisibleBounds(graphics);
 		for (Texture t : world.textures) {
 			XY vPos = worldToView(t.getPosition());
-			Image img = t.getImage();
-			graphics.drawImage(img, vPos.x, vPos.y, (int) (img.getWidth(null) * zoomCoef()), (int) (img.getHeight(null) * zoomCoef()), null);
+			MipMap img = t.getImage();
+			if (img == null) {
+				continue;
+			}
+			int width = (int) (img.getWidth() * zoomCoef()), height = (int) (img.getHeight() * zoomCoef());
+			if (isLit(litPoly, litBounds, vPos.x, vPos.y, width, height)) {
+				img.draw(graphics, vPos.x, vPos.y, zoomCoef(), visible);
+			}
 		}
+		graphics.setClip(clip);
 
 		int imgHalfSize = (int) (Math.ceil(player.vDist) * zoomCoef());
 		int imgSize = imgHalfSize * 2;
-
-		BufferedImage torchImage = new BufferedImage(imgSize, imgSize, BufferedImage.TYPE_INT_ARGB);
-		Graphics2D tig = (Graphics2D) torchImage.getGraphics();
-
-		tig.setColor(Color.BLACK);
-		tig.fillRect(0, 0, imgSize, imgSize);
-
-		tig.setComposite(AlphaComposite.Src);
-		tig.setColor(new Color(0, 0, 0, 0));
-		List<Point> pointList = TorchLight.getPointList(world.lines, player);
-		tig.fillPolygon(convertPointListToImagePoly(pointList, player));
-		tig.setComposite(AlphaComposite.SrcOver);
-
-		if (gradientImage == null || gradientImage.getWidth() != imgSize) {
-			gradientImage = new BufferedImage(imgSize, imgSize, BufferedImage.TYPE_INT_ARGB);
-			for (int pixY = 0; pixY < imgSize; pixY++) {
-				for (int pixX = 0; pixX < imgSize; pixX++) {
-					int alpha = (int) (Math.max(Math.sqrt(NU.sqr(pixX - imgHalfSize) + NU.sqr(pixY - imgHalfSize)) / imgHalfSize, 0) * 255);
-					int color = alpha << 24;
-					gradientImage.setRGB(pixX, pixY, color);
-				}
-			}
-		}
-		tig.drawImage(gradientImage, null, 0, 0);
-		tig.dispose();
+		lightBuffer.render(horizont, player, zoomCoef(), imgHalfSize);
 
 		XY p = worldToView(player);
-		graphics.drawImage(torchImage, p.x - imgHalfSize, p.y - imgHalfSize, null);
+		int imgX = p.x - imgHalfSize, imgY = p.y - imgHalfSize;
+		graphics.drawImage(lightBuffer.getImage(), imgX, imgY, imgX + imgSize, imgY + imgSize, 0, 0, imgSize, imgSize, null);
 
 		graphics.setColor(Color.ORANGE);
 		int pWidth = (int) (16 * zoomCoef());
@@ -104,6 +93,17 @@ class GameView extends AbstractView {
 		}
 	}
 
+	/**
+	 * Test, zda obdélník (v souřadnicích view) může zasahovat do osvětlené oblasti; nejdřív se porovná s opsaným
+	 * obdélníkem horizontu, teprve pak s polygonem
+	 *
+	 * @param litPoly	horizont v souřadnicích view
+	 * @param litBounds	opsaný obdélník horizontu
+	 */
+	private static boolean isLit(Polygon litPoly, Rectangle litBounds, int x, int y, int width, int height) {
+		return litBounds.intersects(x, y, width, height) && litPoly.intersects(x, y, width, height);
+	}
+
 	@Override
 	public boolean keyTyped(KeyEvent e) {
 		return false;
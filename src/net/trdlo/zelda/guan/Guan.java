@@ -18,6 +18,7 @@ public class Guan implements GameInterface {
 
 	public Guan() {
 		world = new World();
+		world.splitCrossingsOnLoad = Boolean.getBoolean("guan.splitCrossings");
 		try {
 			world.loadFromFile("maps/test.map");
 		} catch (Exception ex) {
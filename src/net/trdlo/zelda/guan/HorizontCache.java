@@ -0,0 +1,38 @@
+package net.trdlo.zelda.guan;
+
+/**
+ * Naposledy spočítaný horizont jednoho pozorovatele. Přepočítá se jen tehdy, když se změní poloha, orientace, zorný
+ * úhel nebo dohled pozorovatele, případně verze světa. Přepočet probíhá do stále stejného bufferu.
+ */
+class HorizontCache {
+
+	private final TorchLight torchLight = new TorchLight();
+	private final PolygonBuffer horizont = new PolygonBuffer();
+	private boolean computed;
+	private double x, y, orientation, fov, vDist;
+	private long worldVersion;
+
+	private boolean isValid(World world, Player observer) {
+		return computed
+			&& worldVersion == world.getVersion()
+			&& x == observer.x && y == observer.y
+			&& orientation == observer.orientation
+			&& fov == observer.fov
+			&& vDist == observer.vDist;
+	}
+
+	public PolygonBuffer get(World world, Player observer) {
+		if (!isValid(world, observer)) {
+			x = observer.x;
+			y = observer.y;
+			orientation = observer.orientation;
+			fov = observer.fov;
+			vDist = observer.vDist;
+			worldVersion = world.getVersion();
+			computed = false;
+			torchLight.computeHorizont(world, observer, horizont);
+			computed = true;
+		}
+		return horizont;
+	}
+}
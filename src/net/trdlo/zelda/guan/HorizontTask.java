@@ -0,0 +1,44 @@
+package net.trdlo.zelda.guan;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Výpočet horizontů části pozorovatelů na fork-join poolu. Interval pozorovatelů se půlí, dokud nezbude jediný;
+ * každý pozorovatel počítá ve své HorizontCache, takže se úlohy navzájem neovlivňují.
+ */
+class HorizontTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	private final World world;
+	private final Player[] observers;
+	private final PolygonBuffer[] results;
+	private final int from, to;
+
+	/**
+	 * @param world
+	 * @param observers	pozorovatelé, nikdo další s nimi během výpočtu nesmí pracovat
+	 * @param results	pole pro kopie horizontů, indexované stejně jako observers
+	 * @param from	první pozorovatel intervalu
+	 * @param to	index za posledním pozorovatelem intervalu
+	 */
+	HorizontTask(World world, Player[] observers, PolygonBuffer[] results, int from, int to) {
+		this.world = world;
+		this.observers = observers;
+		this.results = results;
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	protected void compute() {
+		if (to - from <= 1) {
+			for (int i = from; i < to; i++) {
+				results[i] = new PolygonBuffer(world.getHorizont(observers[i]));
+			}
+		} else {
+			int middle = (from + to) >>> 1;
+			invokeAll(new HorizontTask(world, observers, results, from, middle), new HorizontTask(world, observers, results, middle, to));
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package net.trdlo.zelda.guan;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Obrázek tmy kolem pozorovatele: mimo horizont je černý, uvnitř průhlednost klesá se vzdáleností od středu.
+ * Obrázek i pomocná pole se drží mezi snímky a horizont se rasterizuje přímo do pixelů (sudo-lichým pravidlem,
+ * vzorkuje se ve středech pixelů).
+ */
+class LightBuffer {
+
+	private static final int OPAQUE_BLACK = 0xff000000;
+
+	/**
+	 * Alfa tmy podle druhé mocniny vzdálenosti od středu normované poloměrem, nezávisí na poloměru ani zoomu
+	 */
+	private static final int GRADIENT_STEPS = 4096;
+	private static final int[] GRADIENT = new int[GRADIENT_STEPS + 1];
+
+	static {
+		for (int i = 0; i <= GRADIENT_STEPS; i++) {
+			GRADIENT[i] = (int) (Math.sqrt((double) i / GRADIENT_STEPS) * 255) << 24;
+		}
+	}
+
+	private BufferedImage image;
+	private int[] pixels;
+	private int capacity, size;
+
+	private double[] xs = new double[64], ys = new double[64];
+	private double[] crossings = new double[64];
+
+	/**
+	 * Obrázek s posledním výsledkem; platná je jen jeho levá horní část size x size
+	 *
+	 * @return
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	private void ensureCapacity(int size) {
+		if (size > capacity) {
+			capacity = size;
+			image = new BufferedImage(capacity, capacity, BufferedImage.TYPE_INT_ARGB);
+			pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		}
+		this.size = size;
+	}
+
+	/**
+	 * Vykreslí tmu pro horizont pozorovatele
+	 *
+	 * @param horizont	horizont ve světových souřadnicích
+	 * @param observer
+	 * @param zoomCoef	měřítko světa v pixelech
+	 * @param halfSize	polovina velikosti obrázku v pixelech, střed gradientu
+	 */
+	public void render(PolygonBuffer horizont, Player observer, double zoomCoef, int halfSize) {
+		ensureCapacity(Math.max(1, 2 * halfSize));
+
+		//vrcholy v souřadnicích obrázku, stejně jako AbstractView.convertPointListToImagePoly
+		int count = horizont.size();
+		if (xs.length < count) {
+			xs = new double[count];
+			ys = new double[count];
+			crossings = new double[count];
+		}
+		double cx = observer.vDist - observer.x;
+		double cy = observer.vDist - observer.y;
+		for (int i = 0; i < count; i++) {
+			xs[i] = (horizont.getX(i) + cx) * zoomCoef;
+			ys[i] = (horizont.getY(i) + cy) * zoomCoef;
+		}
+
+		double invHalfSqr = halfSize > 0 ? 1.0 / ((double) halfSize * halfSize) : 0;
+		for (int y = 0; y < size; y++) {
+			int row = y * capacity;
+			double sampleY = y + 0.5;
+			int n = getCrossings(count, sampleY);
+
+			int x = 0;
+			double dy = y - halfSize;
+			for (int i = 0; i + 1 < n; i += 2) {
+				int from = Math.max(x, (int) Math.ceil(crossings[i] - 0.5));
+				int to = Math.min(size, (int) Math.ceil(crossings[i + 1] - 0.5));
+				if (from >= to) {
+					continue;
+				}
+				Arrays.fill(pixels, row + x, row + from, OPAQUE_BLACK);
+				for (int px = from; px < to; px++) {
+					double dx = px - halfSize;
+					int index = (int) ((dx * dx + dy * dy) * invHalfSqr * GRADIENT_STEPS);
+					pixels[row + px] = GRADIENT[Math.min(index, GRADIENT_STEPS)];
+				}
+				x = to;
+			}
+			Arrays.fill(pixels, row + x, row + size, OPAQUE_BLACK);
+		}
+	}
+
+	/**
+	 * Naplní crossings seřazenými x-souřadnicemi průsečíků hran polygonu s vodorovnou přímkou y
+	 *
+	 * @return	počet průsečíků
+	 */
+	private int getCrossings(int count, double y) {
+		int n = 0;
+		for (int i = 0, j = count - 1; i < count; j = i++) {
+			double y0 = ys[j], y1 = ys[i];
+			if ((y0 <= y && y < y1) || (y1 <= y && y < y0)) {
+				double x = xs[j] + (y - y0) / (y1 - y0) * (xs[i] - xs[j]);
+				//vložení na místo, průsečíků je málo
+				int k = n++;
+				while (k > 0 && crossings[k - 1] > x) {
+					crossings[k] = crossings[k - 1];
+					k--;
+				}
+				crossings[k] = x;
+			}
+		}
+		return n;
+	}
+}
@@ -82,6 +82,11 @@ public final class Line {
 
 	public double cachedLen = Double.NaN;
 
+	/**
+	 * Svět, do jehož množiny lajn úsečka patří (nebo null); dostává zprávu o každé změně
+	 */
+	World world;
+
 	/**
 	 * Prázdný konstruktor používaný jen místními statickými továrními metodami
 	 */
@@ -93,6 +98,9 @@ public final class Line {
 		b = B.x - A.x;
 		c = -a * A.x - b * A.y;
 		cachedLen = Double.NaN;
+		if (world != null) {
+			world.lineChanged(this);
+		}
 	}
 
 	public boolean isValid() {
@@ -111,6 +119,9 @@ public final class Line {
 		assert A != null;
 		assert A != this.B;
 
+		if (world != null) {
+			world.lineEndsChanging(this);
+		}
 		if (autoUpdate) {
 			this.A.removeConnectedLine(this);
 		}
@@ -125,6 +136,9 @@ public final class Line {
 		assert B != null;
 		assert B != this.A;
 
+		if (world != null) {
+			world.lineEndsChanging(this);
+		}
 		if (autoUpdate) {
 			this.B.removeConnectedLine(this);
 		}
@@ -140,6 +154,9 @@ public final class Line {
 		assert B != null;
 		assert A != B;
 
+		if (world != null) {
+			world.lineEndsChanging(this);
+		}
 		if (autoUpdate) {
 			this.A.removeConnectedLine(this);
 			this.B.removeConnectedLine(this);
@@ -384,6 +401,21 @@ public final class Line {
 		return nx * (vy / vLen) - (vx / vLen) * ny;
 	}
 
+	/**
+	 * Zapíše do result bod na polopřímce v dané vzdálenosti od počátku
+	 *
+	 * @param distance	vzdálenost od počátku
+	 * @param result	bod, do kterého se zapíší souřadnice
+	 */
+	public void getPointAtDistanceFromA(double distance, Point result) {
+		double vx = B.x - A.x;
+		double vy = B.y - A.y;
+		double coef = distance / Math.sqrt(vx * vx + vy * vy);
+
+		result.x = A.x + coef * vx;
+		result.y = A.y + coef * vy;
+	}
+
 	/**
 	 * Vygeneruje bod na polopřímce v dané vzdálenosti od počátku
 	 *
@@ -490,6 +522,63 @@ public final class Line {
 		return null;
 	}
 
+	/**
+	 * Nalezne průsečík této polopřímky a úsečky a zapíše ho do result, nic nealokuje
+	 *
+	 * @param segment	druhá přímka
+	 * @param result	bod, do kterého se zapíší souřadnice průsečíku
+	 * @return	zda průsečík existuje
+	 */
+	public boolean getRaySegmentIntersection(Line segment, Point result) {
+		double denominator = (a * segment.b - segment.a * b);
+		if (Math.abs(denominator) >= MINIMAL_DENOMINOATOR) {
+			double ix = (b * segment.c - c * segment.b) / denominator;
+			double iy = (segment.a * c - a * segment.c) / denominator;
+			if (NU.inRange(0, segment.getPosition(ix, iy), 1) && getPosition(ix, iy) >= 0) {
+				result.x = ix;
+				result.y = iy;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Druhá mocnina vzdálenosti počátku této polopřímky od průsečíku s úsečkou, nic nealokuje
+	 *
+	 * @param segment	druhá přímka
+	 * @return	druhá mocnina vzdálenosti, nebo -1, pokud se neprotnou
+	 */
+	public double getRaySegmentIntersectionDistanceSquare(Line segment) {
+		double denominator = (a * segment.b - segment.a * b);
+		if (Math.abs(denominator) >= MINIMAL_DENOMINOATOR) {
+			double ix = (b * segment.c - c * segment.b) / denominator;
+			double iy = (segment.a * c - a * segment.c) / denominator;
+			if (NU.inRange(0, segment.getPosition(ix, iy), 1) && getPosition(ix, iy) >= 0) {
+				return NU.sqr(ix - A.x) + NU.sqr(iy - A.y);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Nalezne průsečík této a jiné přímky a zapíše ho do result, nic nealokuje
+	 *
+	 * @param line	druhá přímka
+	 * @param result	bod, do kterého se zapíší souřadnice průsečíku
+	 * @return	zda průsečík existuje
+	 */
+	public boolean getIntersection(Line line, Point result) {
+		double denominator = (a * line.b - line.a * b);
+		if (Math.abs(denominator) >= MINIMAL_DENOMINOATOR) {
+			result.x = (b * line.c - c * line.b) / denominator;
+			result.y = (line.a * c - a * line.c) / denominator;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
 	/**
 	 * Nalezne průsečík této a jiné úsečky
 	 *
@@ -867,12 +956,61 @@ public final class Line {
 		return points;
 	}
 
+	/**
+	 * Společné body kružnice s touto úsečkou bez alokace seznamu; souřadnice se zapíší do result jako x1, y1, x2, y2
+	 *
+	 * @param cx
+	 * @param cy
+	 * @param radius
+	 * @param result	pole alespoň o 4 prvcích
+	 * @return	počet nalezených bodů
+	 */
+	public int getSegmentCircleIntersection(double cx, double cy, double radius, double[] result) {
+		assert isValid();
+
+		double vx = B.x - A.x;
+		double vy = B.y - A.y;
+		double cax = cx - A.x;
+		double cay = cy - A.y;
+
+		double lineLenSq = vx * vx + vy * vy;
+		double bBy2 = vx * cax + vy * cay;
+
+		double pBy2 = bBy2 / lineLenSq;
+
+		double chlemst = cax * cax + cay * cay - radius * radius;
+		double q = chlemst / lineLenSq;
+
+		double disc = pBy2 * pBy2 - q;
+		int count = 0;
+		if (disc == 0) {
+			count = addIfInSegment(A.x + vx * pBy2, A.y + vy * pBy2, result, count);
+		} else if (disc > 0) {
+			double discSqrt = Math.sqrt(disc);
+			double abScalingFactor1 = -pBy2 + discSqrt;
+			double abScalingFactor2 = -pBy2 - discSqrt;
+
+			count = addIfInSegment(A.x - vx * abScalingFactor1, A.y - vy * abScalingFactor1, result, count);
+			count = addIfInSegment(A.x - vx * abScalingFactor2, A.y - vy * abScalingFactor2, result, count);
+		}
+		return count;
+	}
+
+	private int addIfInSegment(double x, double y, double[] result, int count) {
+		if (NU.inRange(0, getPosition(x, y), 1)) {
+			result[2 * count] = x;
+			result[2 * count + 1] = y;
+			return count + 1;
+		}
+		return count;
+	}
+
 	@Override
 	public String toString() {
 		return "Line " + A.toStringSimple() + " <-> " + B.toStringSimple();
 	}
 
-	String saveToString(int idA, int idB) {
+	static String saveToString(int idA, int idB) {
 		return "Line " + idA + " " + idB;
 	}
 }
@@ -0,0 +1,439 @@
+package net.trdlo.zelda.guan;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parser textového formátu mapy bez regulárních výrazů. Přijímá přesně stejné řádky jako vzory Point.PAT_POINT,
+ * Line.PAT_LINE a Player.PAT_PLAYER (stejné bílé znaky, čísla i velikost písmen) a vytváří stejný svět jako
+ * World.loadWithPatterns.
+ *
+ * Velký soubor se rozdělí na úseky na hranicích řádků, které se parsují paralelně. Výsledky se pak přidají
+ * do světa v pořadí souboru a teprve potom se ID bodů v záznamech lajn přeloží na body (druhý průchod). Lajna smí
+ * odkazovat jen na bod zapsaný před ní, stejně jako při čtení po řádcích.
+ */
+class MapParser {
+
+	/**
+	 * Menší soubory se parsují v jednom vlákně
+	 */
+	private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+	private final char[] text;
+	private final int length;
+
+	private MapParser(char[] text, int length) {
+		this.text = text;
+		this.length = length;
+	}
+
+	static void load(World world, String fileName) throws Exception {
+		//FileReader čte ve výchozím kódování systému, znaky musí vyjít stejně
+		String content = new String(Files.readAllBytes(Paths.get(fileName)), Charset.defaultCharset());
+		new MapParser(content.toCharArray(), content.length()).load(world);
+	}
+
+	private void load(World world) throws Exception {
+		int chunkCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), length / MIN_CHUNK_SIZE));
+		Chunk[] chunks = new Chunk[chunkCount];
+		int from = 0;
+		for (int i = 0; i < chunkCount; i++) {
+			int to = i == chunkCount - 1 ? length : nextLineStart((int) ((long) length * (i + 1) / chunkCount));
+			chunks[i] = new Chunk(Math.max(from, 0), Math.max(to, from));
+			from = to;
+		}
+
+		if (chunkCount == 1) {
+			chunks[0].compute();
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(chunkCount);
+			try {
+				pool.invoke(new ChunksTask(chunks));
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		Map<Integer, Integer> idIndex = new HashMap<>();
+		List<Point> points = new ArrayList<>();
+		List<Integer> offsets = new ArrayList<>();
+		Map<Integer, List<Integer>> duplicateIds = new HashMap<>();
+		for (Chunk chunk : chunks) {
+			if (chunk.error != null) {
+				throw chunk.error;
+			}
+			for (int i = 0; i < chunk.pointCount; i++) {
+				world.nextPointId = Math.max(world.nextPointId, chunk.pointIds[i] + 1);
+			}
+		}
+		for (Chunk chunk : chunks) {
+			for (int i = 0; i < chunk.pointCount; i++) {
+				Point p = chunk.points.get(i);
+				Integer previous = idIndex.put(chunk.pointIds[i], points.size());
+				//bod zapsaný znovu se stejným ID dostane ve světě nové
+				if (previous == null) {
+					p.id = chunk.pointIds[i];
+				}
+				world.points.add(p);
+				if (previous != null) {
+					List<Integer> definitions = duplicateIds.get(chunk.pointIds[i]);
+					if (definitions == null) {
+						definitions = new ArrayList<>();
+						definitions.add(previous);
+						duplicateIds.put(chunk.pointIds[i], definitions);
+					}
+					definitions.add(points.size());
+				}
+				points.add(p);
+				offsets.add(chunk.pointOffsets[i]);
+			}
+			world.players.addAll(chunk.players);
+		}
+
+		for (Chunk chunk : chunks) {
+			for (int i = 0; i < chunk.lineCount; i++) {
+				int offset = chunk.lineRecords[3 * i];
+				Point A = resolve(chunk.lineRecords[3 * i + 1], offset, idIndex, duplicateIds, points, offsets);
+				Point B = resolve(chunk.lineRecords[3 * i + 2], offset, idIndex, duplicateIds, points, offsets);
+				world.lines.add(Line.constructFromTwoPoints(A, B));
+			}
+		}
+	}
+
+	/**
+	 * Bod s daným ID zapsaný v souboru naposledy před pozicí offset
+	 */
+	private static Point resolve(int id, int offset, Map<Integer, Integer> idIndex, Map<Integer, List<Integer>> duplicateIds, List<Point> points, List<Integer> offsets) throws Exception {
+		List<Integer> definitions = duplicateIds.get(id);
+		if (definitions != null) {
+			for (int i = definitions.size() - 1; i >= 0; i--) {
+				if (offsets.get(definitions.get(i)) < offset) {
+					return points.get(definitions.get(i));
+				}
+			}
+		} else {
+			Integer index = idIndex.get(id);
+			if (index != null && offsets.get(index) < offset) {
+				return points.get(index);
+			}
+		}
+		throw new Exception("Point index " + id + " not found. Can't load world!");
+	}
+
+	/**
+	 * Začátek řádku následujícího za pozicí i (nebo konec textu); konce řádků jako BufferedReader.readLine
+	 */
+	private int nextLineStart(int i) {
+		while (i < length && text[i] != '\n' && text[i] != '\r') {
+			i++;
+		}
+		if (i < length && text[i] == '\r') {
+			i++;
+		}
+		if (i < length && text[i] == '\n') {
+			i++;
+		}
+		return i;
+	}
+
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private int skipSpaces(int i, int end) {
+		while (i < end && isSpace(text[i])) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Klíčové slovo bez ohledu na velikost písmen (jen ASCII, jako CASE_INSENSITIVE)
+	 *
+	 * @param word	klíčové slovo malými písmeny
+	 * @return	pozice za slovem, nebo -1
+	 */
+	private int matchWord(int i, int end, String word) {
+		if (end - i < word.length()) {
+			return -1;
+		}
+		for (int j = 0; j < word.length(); j++) {
+			char c = text[i + j];
+			if (c != word.charAt(j) && c != Character.toUpperCase(word.charAt(j))) {
+				return -1;
+			}
+		}
+		return i + word.length();
+	}
+
+	/**
+	 * Číslo tvaru [-+]?\d*\.?\d+ (nejdelší shoda, jako hladový regulární výraz)
+	 *
+	 * @param signed	zda smí začínat znaménkem
+	 * @return	pozice za číslem, nebo -1
+	 */
+	private int scanNumber(int i, int end, boolean signed) {
+		int j = i;
+		if (signed && j < end && (text[j] == '-' || text[j] == '+')) {
+			j++;
+		}
+		int digitsFrom = j;
+		while (j < end && isDigit(text[j])) {
+			j++;
+		}
+		if (j + 1 < end && text[j] == '.' && isDigit(text[j + 1])) {
+			j += 2;
+			while (j < end && isDigit(text[j])) {
+				j++;
+			}
+			return j;
+		}
+		return j > digitsFrom ? j : -1;
+	}
+
+	private int scanDigits(int i, int end) {
+		int j = i;
+		while (j < end && isDigit(text[j])) {
+			j++;
+		}
+		return j > i ? j : -1;
+	}
+
+	private double parseDouble(int from, int to) {
+		return Double.parseDouble(new String(text, from, to - from));
+	}
+
+	private int parseInt(int from, int to) {
+		if (to - from > 9) {
+			return Integer.parseInt(new String(text, from, to - from));
+		}
+		int value = 0;
+		for (int i = from; i < to; i++) {
+			value = 10 * value + text[i] - '0';
+		}
+		return value;
+	}
+
+	/**
+	 * Výsledky parsování jednoho úseku souboru
+	 */
+	private class Chunk {
+
+		final int from, to;
+
+		final List<Point> points = new ArrayList<>();
+		int[] pointIds = new int[16], pointOffsets = new int[16];
+		int pointCount;
+		/**
+		 * Trojice [pozice záznamu, ID bodu A, ID bodu B]
+		 */
+		int[] lineRecords = new int[48];
+		int lineCount;
+		final List<Player> players = new ArrayList<>();
+		Exception error;
+
+		Chunk(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		void compute() {
+			try {
+				int i = from;
+				while (i < to) {
+					int end = i;
+					while (end < to && text[end] != '\n' && text[end] != '\r') {
+						end++;
+					}
+					parseLine(i, end);
+					i = end;
+					if (i < to && text[i] == '\r') {
+						i++;
+					}
+					if (i < to && text[i] == '\n') {
+						i++;
+					}
+				}
+			} catch (RuntimeException ex) {
+				error = ex;
+			}
+		}
+
+		private void parseLine(int start, int end) {
+			int i = skipSpaces(start, end);
+			if (i < end && (text[i] == 'P' || text[i] == 'p')) {
+				if (!parsePoint(start, i, end)) {
+					parsePlayer(i, end);
+				}
+			} else if (i < end && (text[i] == 'L' || text[i] == 'l')) {
+				parseLineRecord(start, i, end);
+			}
+		}
+
+		/**
+		 * ^\s*Point\s+(\d+)\s*\[\s*(číslo)\s*;\s*(číslo)\s*\]\s*(.*)\z
+		 */
+		private boolean parsePoint(int start, int i, int end) {
+			int j = matchWord(i, end, "point");
+			if (j < 0 || (i = skipSpaces(j, end)) == j) {
+				return false;
+			}
+			int idTo = scanDigits(i, end);
+			if (idTo < 0) {
+				return false;
+			}
+			int idFrom = i;
+			i = skipSpaces(idTo, end);
+			if (i >= end || text[i] != '[') {
+				return false;
+			}
+			int xFrom = skipSpaces(i + 1, end);
+			int xTo = scanNumber(xFrom, end, true);
+			if (xTo < 0) {
+				return false;
+			}
+			i = skipSpaces(xTo, end);
+			if (i >= end || text[i] != ';') {
+				return false;
+			}
+			int yFrom = skipSpaces(i + 1, end);
+			int yTo = scanNumber(yFrom, end, true);
+			if (yTo < 0) {
+				return false;
+			}
+			i = skipSpaces(yTo, end);
+			if (i >= end || text[i] != ']') {
+				return false;
+			}
+			int descFrom = skipSpaces(i + 1, end);
+			for (int k = descFrom; k < end; k++) {
+				//. nezahrnuje ostatní oddělovače řádků
+				if (text[k] == '\u0085' || text[k] == '\u2028' || text[k] == '\u2029') {
+					return false;
+				}
+			}
+
+			if (pointCount == pointIds.length) {
+				pointIds = Arrays.copyOf(pointIds, 2 * pointCount);
+				pointOffsets = Arrays.copyOf(pointOffsets, 2 * pointCount);
+			}
+			points.add(new Point(parseDouble(xFrom, xTo), parseDouble(yFrom, yTo), new String(text, descFrom, end - descFrom)));
+			pointIds[pointCount] = parseInt(idFrom, idTo);
+			pointOffsets[pointCount] = start;
+			pointCount++;
+			return true;
+		}
+
+		/**
+		 * ^\s*Line\s+(\d+)\s+(\d+)\s*\z
+		 */
+		private void parseLineRecord(int start, int i, int end) {
+			int j = matchWord(i, end, "line");
+			if (j < 0 || (i = skipSpaces(j, end)) == j) {
+				return;
+			}
+			int aTo = scanDigits(i, end);
+			if (aTo < 0) {
+				return;
+			}
+			int aFrom = i;
+			i = skipSpaces(aTo, end);
+			int bTo = i > aTo ? scanDigits(i, end) : -1;
+			if (bTo < 0 || skipSpaces(bTo, end) != end) {
+				return;
+			}
+
+			if (3 * lineCount == lineRecords.length) {
+				lineRecords = Arrays.copyOf(lineRecords, 2 * lineRecords.length);
+			}
+			lineRecords[3 * lineCount] = start;
+			lineRecords[3 * lineCount + 1] = parseInt(aFrom, aTo);
+			lineRecords[3 * lineCount + 2] = parseInt(i, bTo);
+			lineCount++;
+		}
+
+		/**
+		 * ^\s*Player\s*\[\s*(číslo)\s*;\s*(číslo)\s*\]\s*(číslo)(?:\s*(\d*\.?\d+))?
+		 */
+		private void parsePlayer(int i, int end) {
+			i = matchWord(i, end, "player");
+			if (i < 0) {
+				return;
+			}
+			i = skipSpaces(i, end);
+			if (i >= end || text[i] != '[') {
+				return;
+			}
+			int xFrom = skipSpaces(i + 1, end);
+			int xTo = scanNumber(xFrom, end, true);
+			if (xTo < 0) {
+				return;
+			}
+			i = skipSpaces(xTo, end);
+			if (i >= end || text[i] != ';') {
+				return;
+			}
+			int yFrom = skipSpaces(i + 1, end);
+			int yTo = scanNumber(yFrom, end, true);
+			if (yTo < 0) {
+				return;
+			}
+			i = skipSpaces(yTo, end);
+			if (i >= end || text[i] != ']') {
+				return;
+			}
+			int oFrom = skipSpaces(i + 1, end);
+			int oTo = scanNumber(oFrom, end, true);
+			if (oTo < 0) {
+				return;
+			}
+			String fov = null;
+			if (oTo < end) {
+				int fovFrom = skipSpaces(oTo, end);
+				int fovTo = scanNumber(fovFrom, end, false);
+				if (fovTo != end) {
+					return;
+				}
+				fov = new String(text, fovFrom, fovTo - fovFrom);
+			}
+			players.add(Player.create(parseDouble(xFrom, xTo), parseDouble(yFrom, yTo), parseDouble(oFrom, oTo), fov));
+		}
+	}
+
+	private static class ChunksTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Chunk[] chunks;
+
+		ChunksTask(Chunk[] chunks) {
+			this.chunks = chunks;
+		}
+
+		@Override
+		protected void compute() {
+			List<RecursiveAction> tasks = new ArrayList<>(chunks.length);
+			for (final Chunk chunk : chunks) {
+				tasks.add(new RecursiveAction() {
+					@Override
+					protected void compute() {
+						chunk.compute();
+					}
+				});
+			}
+			invokeAll(tasks);
+		}
+	}
+}
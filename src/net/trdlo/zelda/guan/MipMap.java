@@ -0,0 +1,182 @@
+package net.trdlo.zelda.guan;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Obrázek textury předem zmenšený na poloviny (pyramida úrovní) a rozřezaný na dlaždice. Při kreslení se vybere
+ * úroveň podle zvětšení pohledu, takže Java2D nikdy nezmenšuje víc než na polovinu, a kreslí se jen dlaždice ve
+ * viditelné oblasti.
+ */
+class MipMap {
+
+	public static final int TILE_SIZE = 256;
+	/**
+	 * Nejmenší úroveň má delší stranu nejvýš tolik pixelů
+	 */
+	private static final int MIN_LEVEL_SIZE = 8;
+
+	private static class Level {
+
+		final int width, height;
+		/**
+		 * Dlaždice po řádcích [řádek][sloupec]
+		 */
+		final BufferedImage[][] tiles;
+
+		Level(BufferedImage image) {
+			width = image.getWidth();
+			height = image.getHeight();
+			int rows = (height + TILE_SIZE - 1) / TILE_SIZE, cols = (width + TILE_SIZE - 1) / TILE_SIZE;
+			tiles = new BufferedImage[rows][cols];
+			if (rows == 1 && cols == 1) {
+				tiles[0][0] = image;
+				return;
+			}
+			for (int r = 0; r < rows; r++) {
+				for (int c = 0; c < cols; c++) {
+					int tw = Math.min(TILE_SIZE, width - c * TILE_SIZE), th = Math.min(TILE_SIZE, height - r * TILE_SIZE);
+					BufferedImage tile = TextureCache.createImage(tw, th, image.getTransparency());
+					Graphics2D g = tile.createGraphics();
+					g.drawImage(image, -c * TILE_SIZE, -r * TILE_SIZE, null);
+					g.dispose();
+					tiles[r][c] = tile;
+				}
+			}
+		}
+	}
+
+	private final int width, height;
+	private final Level[] levels;
+	private final long byteSize;
+
+	private MipMap(BufferedImage image, boolean pyramid) {
+		width = image.getWidth();
+		height = image.getHeight();
+		int pixelBytes = DataBuffer.getDataTypeSize(image.getRaster().getDataBuffer().getDataType()) / 8 * image.getRaster().getNumDataElements();
+
+		List<Level> list = new ArrayList<>();
+		long size = 0;
+		BufferedImage current = image;
+		while (true) {
+			list.add(new Level(current));
+			size += (long) current.getWidth() * current.getHeight() * pixelBytes;
+			if (!pyramid || Math.max(current.getWidth(), current.getHeight()) <= MIN_LEVEL_SIZE) {
+				break;
+			}
+			current = half(current);
+		}
+		levels = list.toArray(new Level[list.size()]);
+		byteSize = size;
+	}
+
+	/**
+	 * Pyramida s dlaždicemi; volá se z vlákna, které obrázek načetlo
+	 *
+	 * @param image	obrázek ve formátu obrazovky
+	 * @return
+	 */
+	static MipMap build(BufferedImage image) {
+		return new MipMap(image, true);
+	}
+
+	/**
+	 * Jediná úroveň bez zmenšenin (zástupný obrázek)
+	 *
+	 * @param image
+	 * @return
+	 */
+	static MipMap single(BufferedImage image) {
+		return new MipMap(image, false);
+	}
+
+	/**
+	 * Poloviční obrázek; bilineární interpolace při zmenšení na polovinu zprůměruje čtveřice pixelů
+	 */
+	private static BufferedImage half(BufferedImage image) {
+		int w = Math.max(1, (image.getWidth() + 1) / 2), h = Math.max(1, (image.getHeight() + 1) / 2);
+		BufferedImage half = TextureCache.createImage(w, h, image.getTransparency());
+		Graphics2D g = half.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(image, 0, 0, w, h, null);
+		g.dispose();
+		return half;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public long getByteSize() {
+		return byteSize;
+	}
+
+	public int getLevelCount() {
+		return levels.length;
+	}
+
+	/**
+	 * Úroveň pro dané zvětšení: nejmenší, která se ještě nemusí zvětšovat
+	 *
+	 * @param zoom
+	 * @return
+	 */
+	public int getLevel(double zoom) {
+		int level = 0;
+		while (level + 1 < levels.length && zoom * (1 << (level + 1)) <= 1) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * Vykreslí obrázek s levým horním rohem na [x; y] zvětšený koeficientem zoom (souřadnice view); kreslí jen
+	 * dlaždice zasahující do visible
+	 *
+	 * @param graphics
+	 * @param x
+	 * @param y
+	 * @param zoom
+	 * @param visible
+	 */
+	public void draw(Graphics2D graphics, int x, int y, double zoom, Rectangle visible) {
+		int targetWidth = (int) (width * zoom), targetHeight = (int) (height * zoom);
+		if (targetWidth <= 0 || targetHeight <= 0 || !visible.intersects(x, y, targetWidth, targetHeight)) {
+			return;
+		}
+		Level level = levels[getLevel(zoom)];
+		//měřítko z pixelů úrovně do view
+		double sx = targetWidth / (double) level.width, sy = targetHeight / (double) level.height;
+		double tileWidth = TILE_SIZE * sx, tileHeight = TILE_SIZE * sy;
+
+		int cols = level.tiles[0].length, rows = level.tiles.length;
+		int c1 = Math.max(0, (int) Math.floor((visible.x - x) / tileWidth));
+		int c2 = Math.min(cols - 1, (int) Math.floor((visible.x + visible.width - x) / tileWidth));
+		int r1 = Math.max(0, (int) Math.floor((visible.y - y) / tileHeight));
+		int r2 = Math.min(rows - 1, (int) Math.floor((visible.y + visible.height - y) / tileHeight));
+		for (int r = r1; r <= r2; r++) {
+			//okraje dlaždic se zaokrouhlují stejně, aby mezi nimi nezůstaly mezery
+			int top = y + (int) Math.round(r * tileHeight);
+			int bottom = r == rows - 1 ? y + targetHeight : y + (int) Math.round((r + 1) * tileHeight);
+			for (int c = c1; c <= c2; c++) {
+				int left = x + (int) Math.round(c * tileWidth);
+				int right = c == cols - 1 ? x + targetWidth : x + (int) Math.round((c + 1) * tileWidth);
+				BufferedImage tile = level.tiles[r][c];
+				if (right - left == tile.getWidth() && bottom - top == tile.getHeight()) {
+					graphics.drawImage(tile, left, top, null);
+				} else {
+					graphics.drawImage(tile, left, top, right - left, bottom - top, null);
+				}
+			}
+		}
+	}
+}
@@ -14,6 +14,8 @@ public class Player {
 	public double orientation;
 	public double fov, vDist, vDistSqr;
 
+	final HorizontCache horizontCache = new HorizontCache();
+
 	private static final double DEFAULT_FOV = NU.degToRad(120);
 
 	public Player() {
@@ -38,13 +40,25 @@ public class Player {
 	static Player loadFromString(String line) {
 		Matcher m = PAT_PLAYER.matcher(line);
 		if (m.matches()) {
-			String fovStr = m.group(4);
-			return new Player(Double.valueOf(m.group(1)), Double.valueOf(m.group(2)), Double.valueOf(m.group(3)), fovStr != null ? NU.degToRad(Integer.valueOf(fovStr)) : DEFAULT_FOV);
+			return create(Double.valueOf(m.group(1)), Double.valueOf(m.group(2)), Double.valueOf(m.group(3)), m.group(4));
 		} else {
 			throw new IllegalArgumentException("Supplied line does not match pattern.");
 		}
 	}
 
+	/**
+	 * Hráč z načtených hodnot záznamu mapy
+	 *
+	 * @param x
+	 * @param y
+	 * @param orientation
+	 * @param fovStr	zorný úhel ve stupních, nebo null pro výchozí
+	 * @return
+	 */
+	static Player create(double x, double y, double orientation, String fovStr) {
+		return new Player(x, y, orientation, fovStr != null ? NU.degToRad(Integer.valueOf(fovStr)) : DEFAULT_FOV);
+	}
+
 	String saveToString() {
 		return "Player [" + String.format(Locale.ENGLISH, "%f", x) + ";" + String.format(Locale.ENGLISH, "%f", y) + "] " + orientation + " " + NU.radToDeg(fov);
 	}
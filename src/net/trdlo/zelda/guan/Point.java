@@ -46,7 +46,14 @@ public final class Point {
 
 	public Set<Line> connectedLines = null;
 
-	public double tempAngle, tempDistSqr;
+	/**
+	 * Svět, do jehož množiny bodů bod patří (nebo null); udržuje podle polohy bodu svůj prostorový index
+	 */
+	World world;
+	/**
+	 * Trvalé ID bodu, pod kterým ho zapisuje mapa a deník úprav; přidělí ho svět (nebo -1)
+	 */
+	int id = -1;
 
 	public Point(double x, double y, String description) {
 		this.x = x;
@@ -112,6 +119,9 @@ public final class Point {
 
 	public void setDescription(String description) {
 		this.description = description;
+		if (world != null) {
+			world.pointChanged(this);
+		}
 	}
 
 	public void addConnectedLine(Line line) {
@@ -133,6 +143,9 @@ public final class Point {
 				line.refreshCoefs();
 			}
 		}
+		if (world != null) {
+			world.pointChanged(this);
+		}
 	}
 
 	public double getDistanceSquare(double px, double py) {
@@ -161,6 +174,10 @@ public final class Point {
 	}
 
 	String saveToString(int saveID) {
+		return saveToString(saveID, x, y, description);
+	}
+
+	static String saveToString(int saveID, double x, double y, String description) {
 		return "Point " + saveID + " [" + String.format(Locale.ENGLISH, "%f", x) + ";" + String.format(Locale.ENGLISH, "%f", y) + "] " + description;
 	}
 
@@ -171,10 +188,7 @@ public final class Point {
 	public void roundToGrid(int gridStep) {
 		x = NU.roundToMultipleOf(x, gridStep);
 		y = NU.roundToMultipleOf(y, gridStep);
-	}
-
-	public void tempAngleByObserver(Player observer) {
-		tempAngle = NU.normalizeAngle(Math.atan2(y - observer.y, x - observer.x) - observer.orientation);
+		notifyChange();
 	}
 
 }
@@ -0,0 +1,167 @@
+package net.trdlo.zelda.guan;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hierarchie shluků bodů pro kreslení oddáleného pohledu. Úroveň k dělí rovinu na čtverce o straně
+ * BASE_SIZE * 2^k a pro každý neprázdný čtverec drží počet bodů a součet jejich souřadnic (těžiště). Hierarchie se
+ * udržuje průběžně při přidání, odebrání a posunu bodu, takže změna zvětšení jen vybere jinou úroveň.
+ */
+class PointClusters {
+
+	public static final double BASE_SIZE = 32;
+	public static final int LEVELS = 16;
+
+	static class Cluster {
+
+		private int count;
+		private double sumX, sumY;
+
+		public int getCount() {
+			return count;
+		}
+
+		public double getX() {
+			return sumX / count;
+		}
+
+		public double getY() {
+			return sumY / count;
+		}
+	}
+
+	private final List<Map<Long, Cluster>> levels;
+	/**
+	 * Souřadnice, se kterými je bod ve shlucích započítaný
+	 */
+	private final Map<Point, double[]> positions;
+
+	public PointClusters() {
+		levels = new ArrayList<>(LEVELS);
+		for (int i = 0; i < LEVELS; i++) {
+			levels.add(new HashMap<Long, Cluster>());
+		}
+		positions = new HashMap<>();
+	}
+
+	private static int cell(double coord, int level) {
+		return (int) Math.floor(coord / (BASE_SIZE * (1 << level)));
+	}
+
+	private static long key(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+
+	public static double getCellSize(int level) {
+		return BASE_SIZE * (1 << level);
+	}
+
+	public void add(Point p) {
+		if (positions.containsKey(p)) {
+			return;
+		}
+		positions.put(p, new double[]{p.x, p.y});
+		for (int i = 0; i < LEVELS; i++) {
+			long k = key(cell(p.x, i), cell(p.y, i));
+			Cluster c = levels.get(i).get(k);
+			if (c == null) {
+				c = new Cluster();
+				levels.get(i).put(k, c);
+			}
+			c.count++;
+			c.sumX += p.x;
+			c.sumY += p.y;
+		}
+	}
+
+	public void remove(Point p) {
+		double[] pos = positions.remove(p);
+		if (pos == null) {
+			return;
+		}
+		for (int i = 0; i < LEVELS; i++) {
+			long k = key(cell(pos[0], i), cell(pos[1], i));
+			Cluster c = levels.get(i).get(k);
+			if (--c.count == 0) {
+				levels.get(i).remove(k);
+			} else {
+				c.sumX -= pos[0];
+				c.sumY -= pos[1];
+			}
+		}
+	}
+
+	/**
+	 * Souřadnice, se kterými je bod ve shlucích započítaný (před update tedy jeho předchozí poloha)
+	 *
+	 * @param p
+	 * @return	{x, y}, nebo null, pokud bod ve shlucích není
+	 */
+	public double[] getPosition(Point p) {
+		return positions.get(p);
+	}
+
+	/**
+	 * Přepočítá shluky po změně souřadnic bodu
+	 *
+	 * @param p
+	 */
+	public void update(Point p) {
+		double[] pos = positions.get(p);
+		if (pos != null && (pos[0] != p.x || pos[1] != p.y)) {
+			remove(p);
+			add(p);
+		}
+	}
+
+	/**
+	 * Nejnižší úroveň, jejíž čtverce mají stranu aspoň minSize
+	 *
+	 * @param minSize
+	 * @return
+	 */
+	public static int getLevel(double minSize) {
+		int level = 0;
+		while (level + 1 < LEVELS && getCellSize(level) < minSize) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * Naplní result shluky dané úrovně, jejichž čtverec zasahuje do obdélníku
+	 *
+	 * @param level
+	 * @param x1
+	 * @param y1
+	 * @param x2
+	 * @param y2
+	 * @param result
+	 */
+	public void getClustersIn(int level, double x1, double y1, double x2, double y2, List<Cluster> result) {
+		Map<Long, Cluster> cells = levels.get(level);
+		int cx1 = cell(Math.min(x1, x2), level), cx2 = cell(Math.max(x1, x2), level);
+		int cy1 = cell(Math.min(y1, y2), level), cy2 = cell(Math.max(y1, y2), level);
+		if ((long) (cx2 - cx1 + 1) * (cy2 - cy1 + 1) > cells.size()) {
+			for (Map.Entry<Long, Cluster> entry : cells.entrySet()) {
+				long k = entry.getKey();
+				int cx = (int) (k >> 32), cy = (int) k;
+				if (cx >= cx1 && cx <= cx2 && cy >= cy1 && cy <= cy2) {
+					result.add(entry.getValue());
+				}
+			}
+			return;
+		}
+		for (int cx = cx1; cx <= cx2; cx++) {
+			for (int cy = cy1; cy <= cy2; cy++) {
+				Cluster c = cells.get(key(cx, cy));
+				if (c != null) {
+					result.add(c);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package net.trdlo.zelda.guan;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rovnoměrná mřížka nad body světa, obdoba SegmentGrid. Buňky jsou hashované podle svých souřadnic, bod leží
+ * v právě jedné buňce a po posunu se přesune jen tehdy, když ji opustí.
+ * Místo quadtree/kd-stromu je zvolena mřížka: posun bodu při tažení je O(1) bez přestavby stromu a dotazy
+ * v pohledu i u kurzoru mají velikost srovnatelnou s buňkou. Za to buňka s pevnou stranou nijak nedělí velmi husté
+ * nebo na sobě naskládané body (importované mapy před weld) a dotaz do ní prochází všechny její body lineárně.
+ */
+class PointGrid {
+
+	public static final double DEFAULT_CELL_SIZE = 64;
+
+	private final double cellSize;
+	private final Map<Long, List<Point>> cells;
+	private final Map<Point, Long> pointCells;
+
+	public PointGrid(double cellSize) {
+		assert cellSize > 0;
+
+		this.cellSize = cellSize;
+		cells = new HashMap<>();
+		pointCells = new HashMap<>();
+	}
+
+	public PointGrid() {
+		this(DEFAULT_CELL_SIZE);
+	}
+
+	private int cell(double coord) {
+		return (int) Math.floor(coord / cellSize);
+	}
+
+	private static long key(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+
+	private long key(Point p) {
+		return key(cell(p.x), cell(p.y));
+	}
+
+	public void add(Point p) {
+		if (pointCells.containsKey(p)) {
+			return;
+		}
+		long k = key(p);
+		List<Point> bucket = cells.get(k);
+		if (bucket == null) {
+			bucket = new ArrayList<>(4);
+			cells.put(k, bucket);
+		}
+		bucket.add(p);
+		pointCells.put(p, k);
+	}
+
+	public void remove(Point p) {
+		Long k = pointCells.remove(p);
+		if (k == null) {
+			return;
+		}
+		List<Point> bucket = cells.get(k);
+		if (bucket != null) {
+			bucket.remove(p);
+			if (bucket.isEmpty()) {
+				cells.remove(k);
+			}
+		}
+	}
+
+	/**
+	 * Přesune bod do správné buňky po změně jeho souřadnic
+	 *
+	 * @param p
+	 */
+	public void update(Point p) {
+		Long k = pointCells.get(p);
+		if (k != null && k != key(p)) {
+			remove(p);
+			add(p);
+		}
+	}
+
+	public int size() {
+		return pointCells.size();
+	}
+
+	/**
+	 * Naplní result body, pro které platí Point.inRect(x1, y1, x2, y2)
+	 *
+	 * @param x1
+	 * @param y1
+	 * @param x2
+	 * @param y2
+	 * @param result
+	 */
+	public void getPointsIn(double x1, double y1, double x2, double y2, Collection<Point> result) {
+		int cx1 = cell(Math.min(x1, x2)), cx2 = cell(Math.max(x1, x2));
+		int cy1 = cell(Math.min(y1, y2)), cy2 = cell(Math.max(y1, y2));
+		//velký obdélník (oddálený pohled) má víc buněk, než je neprázdných, projdou se rovnou všechny body
+		if ((long) (cx2 - cx1 + 1) * (cy2 - cy1 + 1) > cells.size()) {
+			for (List<Point> bucket : cells.values()) {
+				for (Point p : bucket) {
+					if (p.inRect(x1, y1, x2, y2)) {
+						result.add(p);
+					}
+				}
+			}
+			return;
+		}
+		for (int cx = cx1; cx <= cx2; cx++) {
+			for (int cy = cy1; cy <= cy2; cy++) {
+				List<Point> bucket = cells.get(key(cx, cy));
+				if (bucket != null) {
+					for (Point p : bucket) {
+						if (p.inRect(x1, y1, x2, y2)) {
+							result.add(p);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Nejbližší bod k [x; y], jehož vzdálenost je nejvýše maxDist. Buňky se procházejí po čtvercových prstencích od
+	 * buňky bodu a hledání končí, jakmile další prstenec nemůže obsahovat bližší bod.
+	 *
+	 * @param x
+	 * @param y
+	 * @param maxDist
+	 * @return	nejbližší bod nebo null
+	 */
+	public Point getNearestPoint(double x, double y, double maxDist) {
+		int cx = cell(x), cy = cell(y);
+		int maxRing = (int) Math.ceil(maxDist / cellSize) + 1;
+		double maxDistSqr = maxDist * maxDist;
+
+		Point nearest = null;
+		double nearestSqr = Double.MAX_VALUE;
+		for (int ring = 0; ring <= maxRing; ring++) {
+			//všechny body prstence jsou od [x; y] dál než (ring - 1) buněk
+			double ringDist = (ring - 1) * cellSize;
+			if (ringDist > 0 && (ringDist * ringDist > nearestSqr || ringDist * ringDist > maxDistSqr)) {
+				break;
+			}
+			for (int i = cx - ring; i <= cx + ring; i++) {
+				for (int j = cy - ring; j <= cy + ring; j++) {
+					if (i != cx - ring && i != cx + ring && j != cy - ring && j != cy + ring) {
+						//vnitřek prstence už byl prohledán, přeskočí se na jeho druhou stranu
+						j = cy + ring - 1;
+						continue;
+					}
+					List<Point> bucket = cells.get(key(i, j));
+					if (bucket != null) {
+						for (Point p : bucket) {
+							double distSqr = p.getDistanceSquare(x, y);
+							if (distSqr <= maxDistSqr && distSqr < nearestSqr) {
+								nearestSqr = distSqr;
+								nearest = p;
+							}
+						}
+					}
+				}
+			}
+		}
+		return nearest;
+	}
+}
@@ -0,0 +1,159 @@
+package net.trdlo.zelda.guan;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Svaření splývajících bodů celého světa (příkaz weld). Dvojice bližší než tolerance se hledají v hashované mřížce
+ * s buňkami o straně tolerance (stačí prohledat 3x3 buňky); bod se stejnými souřadnicemi jako bod už v mřížce se do
+ * ní nepřidá, takže ani mnoho zdvojených bodů na jednom místě nezpomalí průchod, který je v průměru lineární.
+ * Shluky bodů spojených tranzitivně (union-find) se nahradí prvním bodem shluku, lajny se přepojí na něj a lajny,
+ * které se tím zdegenerují nebo zdvojí, se odstraní.
+ */
+class PointWelder {
+
+	public static final double DEFAULT_TOLERANCE = World.MINIMAL_DETECTABLE_DISTANCE;
+
+	private final World world;
+	private final double tolerance;
+	private final List<Point> points;
+	private final Map<Point, Integer> indices;
+	/**
+	 * Union-find nad indexy do points; kořen shluku je vždy jeho nejmenší index
+	 */
+	private final int[] parent;
+
+	private int weldedPoints, groups, degenerateLines, duplicateLines;
+
+	private PointWelder(World world, double tolerance) {
+		this.world = world;
+		this.tolerance = tolerance;
+		points = new ArrayList<>(world.points);
+		indices = new HashMap<>();
+		parent = new int[points.size()];
+		for (int i = 0; i < parent.length; i++) {
+			parent[i] = i;
+			indices.put(points.get(i), i);
+		}
+	}
+
+	/**
+	 * Svaří body světa bližší než tolerance
+	 *
+	 * @param world
+	 * @param tolerance
+	 * @return	zpráva pro konzoli
+	 */
+	static String weld(World world, double tolerance) {
+		long start = System.currentTimeMillis();
+		PointWelder welder = new PointWelder(world, tolerance);
+		welder.findGroups();
+		welder.merge();
+		return String.format("Welded %d points into %d, removed %d degenerate and %d duplicate lines in %d ms",
+			welder.weldedPoints, welder.groups, welder.degenerateLines, welder.duplicateLines, System.currentTimeMillis() - start);
+	}
+
+	private int find(int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private void union(int i, int j) {
+		int ri = find(i), rj = find(j);
+		if (ri < rj) {
+			parent[rj] = ri;
+		} else if (rj < ri) {
+			parent[ri] = rj;
+		}
+	}
+
+	private static long key(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+
+	private void findGroups() {
+		Map<Long, List<Integer>> cells = new HashMap<>();
+		double cellSize = Math.max(tolerance, World.MINIMAL_DETECTABLE_DISTANCE);
+		double toleranceSqr = tolerance * tolerance;
+		for (int i = 0; i < points.size(); i++) {
+			Point p = points.get(i);
+			boolean duplicate = false;
+			int cx = (int) Math.floor(p.x / cellSize), cy = (int) Math.floor(p.y / cellSize);
+			for (int x = cx - 1; x <= cx + 1; x++) {
+				for (int y = cy - 1; y <= cy + 1; y++) {
+					List<Integer> bucket = cells.get(key(x, y));
+					if (bucket != null) {
+						for (int j : bucket) {
+							Point q = points.get(j);
+							if (q.x == p.x && q.y == p.y) {
+								duplicate = true;
+								union(j, i);
+							} else if (p.getDistanceSquare(q) <= toleranceSqr) {
+								union(j, i);
+							}
+						}
+					}
+				}
+			}
+			if (duplicate) {
+				continue;
+			}
+			List<Integer> bucket = cells.get(key(cx, cy));
+			if (bucket == null) {
+				bucket = new ArrayList<>(2);
+				cells.put(key(cx, cy), bucket);
+			}
+			bucket.add(i);
+		}
+	}
+
+	private void merge() {
+		Set<Point> kept = new LinkedHashSet<>();
+		for (int i = 0; i < points.size(); i++) {
+			int root = find(i);
+			if (root == i) {
+				continue;
+			}
+			Point preserved = points.get(root), merged = points.get(i);
+			kept.add(preserved);
+			if (merged.connectedLines != null) {
+				for (Line l : new ArrayList<>(merged.connectedLines)) {
+					Point other = l.getOtherPoint(merged);
+					Integer otherIndex = indices.get(other);
+					if (other == preserved || (otherIndex != null && find(otherIndex) == root)) {
+						world.lines.remove(l);
+						degenerateLines++;
+					} else {
+						l.changePoint(merged, preserved);
+					}
+				}
+			}
+			if (preserved.getDescription().isEmpty() && !merged.getDescription().isEmpty()) {
+				preserved.setDescription(merged.getDescription());
+			}
+			world.points.remove(merged);
+			weldedPoints++;
+		}
+		groups = kept.size();
+
+		for (Point p : kept) {
+			if (p.connectedLines == null) {
+				continue;
+			}
+			Map<Point, Line> ends = new HashMap<>();
+			for (Line l : new ArrayList<>(p.connectedLines)) {
+				if (ends.put(l.getOtherPoint(p), l) != null) {
+					world.lines.remove(l);
+					duplicateLines++;
+				}
+			}
+		}
+	}
+}
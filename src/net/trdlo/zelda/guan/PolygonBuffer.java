@@ -0,0 +1,76 @@
+package net.trdlo.zelda.guan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Znovupoužitelný seznam vrcholů polygonu v primitivních polích, roste podle potřeby a při clear() nic neuvolňuje
+ */
+public class PolygonBuffer {
+
+	private double[] xs, ys;
+	private int size;
+
+	public PolygonBuffer(int capacity) {
+		xs = new double[capacity];
+		ys = new double[capacity];
+	}
+
+	public PolygonBuffer() {
+		this(64);
+	}
+
+	/**
+	 * Kopie jiného bufferu, kapacita odpovídá přesně jeho velikosti
+	 *
+	 * @param source
+	 */
+	public PolygonBuffer(PolygonBuffer source) {
+		this(Math.max(source.size, 1));
+		System.arraycopy(source.xs, 0, xs, 0, source.size);
+		System.arraycopy(source.ys, 0, ys, 0, source.size);
+		size = source.size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public void add(double x, double y) {
+		if (size == xs.length) {
+			int capacity = xs.length * 2;
+			double[] nxs = new double[capacity], nys = new double[capacity];
+			System.arraycopy(xs, 0, nxs, 0, size);
+			System.arraycopy(ys, 0, nys, 0, size);
+			xs = nxs;
+			ys = nys;
+		}
+		xs[size] = x;
+		ys[size] = y;
+		size++;
+	}
+
+	public void add(Point p) {
+		add(p.x, p.y);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public double getX(int i) {
+		return xs[i];
+	}
+
+	public double getY(int i) {
+		return ys[i];
+	}
+
+	public List<Point> toPointList() {
+		List<Point> list = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			list.add(new Point(xs[i], ys[i]));
+		}
+		return list;
+	}
+}
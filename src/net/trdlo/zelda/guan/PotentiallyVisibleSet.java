@@ -0,0 +1,341 @@
+package net.trdlo.zelda.guan;
+
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.trdlo.zelda.NU;
+
+/**
+ * Potenciálně viditelné množiny lajn (PVS). Hranice světa (World.bounds) se dělí na čtvercové buňky a pro každou
+ * buňku se drží lajny, které mohou být vidět odkudkoli z buňky do vzdálenosti radius. Lajna se vyřadí jen tehdy,
+ * když ji před celou buňkou zakrývá jediná jiná lajna, takže výsledek je vždy konzervativní.
+ *
+ * Buňky se počítají líně při prvním dotazu. Po změně lajny se zneplatní jen buňky v jejím dosahu (před změnou
+ * i po ní). Všechny metody jsou synchronizované, dotazovat se lze i z více vláken výpočtu horizontů.
+ */
+class PotentiallyVisibleSet {
+
+	public static final double DEFAULT_CELL_SIZE = 64;
+
+	/**
+	 * Rezerva, o kterou musí zakrývající lajna přesahovat všechny paprsky z buňky na zakrytou lajnu
+	 */
+	private static final double OCCLUSION_MARGIN = 1;
+
+	/**
+	 * Pro pozorovatele s dohledem výrazně menším, než pro jaký jsou buňky spočítané, se PVS nevyplatí (mřížka úseček
+	 * vrátí méně lajn)
+	 */
+	private static final double MIN_RADIUS_RATIO = 0.75;
+
+	private static final Comparator<Line> LENGTH_DESCENDING = new Comparator<Line>() {
+		@Override
+		public int compare(Line o1, Line o2) {
+			return Double.compare(o2.A.getDistanceSquare(o2.B), o1.A.getDistanceSquare(o1.B));
+		}
+	};
+
+	private final World world;
+	private final double cellSize;
+	private double radius;
+
+	private Rectangle layoutBounds;
+	private int cols, rows;
+	private List<List<Line>> cells;
+	private int[] cellCandidates;
+	private final Map<Line, Rectangle2D.Double> lineBounds;
+
+	private int computedCells;
+	private long candidateLines, visibleLines;
+
+	public PotentiallyVisibleSet(World world, double cellSize) {
+		assert cellSize > 0;
+
+		this.world = world;
+		this.cellSize = cellSize;
+		lineBounds = new HashMap<>();
+	}
+
+	public PotentiallyVisibleSet(World world) {
+		this(world, DEFAULT_CELL_SIZE);
+	}
+
+	private static Rectangle2D.Double getBounds(Line line) {
+		double x1 = Math.min(line.A.x, line.B.x), y1 = Math.min(line.A.y, line.B.y);
+		return new Rectangle2D.Double(x1, y1, Math.max(line.A.x, line.B.x) - x1, Math.max(line.A.y, line.B.y) - y1);
+	}
+
+	/**
+	 * Rozdělí aktuální hranice světa na buňky, všechny buňky jsou pak nespočítané
+	 */
+	private void layout() {
+		layoutBounds = new Rectangle(world.bounds);
+		cols = Math.max(1, (int) Math.ceil(layoutBounds.width / cellSize));
+		rows = Math.max(1, (int) Math.ceil(layoutBounds.height / cellSize));
+		cells = new ArrayList<>(Collections.<List<Line>>nCopies(cols * rows, null));
+		cellCandidates = new int[cols * rows];
+		computedCells = 0;
+		candidateLines = visibleLines = 0;
+	}
+
+	private void ensureLayout(double minRadius) {
+		if (cells == null || !world.bounds.equals(layoutBounds)) {
+			layout();
+		}
+		if (minRadius > radius) {
+			radius = minRadius;
+			layout();
+		}
+	}
+
+	/**
+	 * Lajny potenciálně viditelné z bodu [x; y] do vzdálenosti vDist
+	 *
+	 * @param x
+	 * @param y
+	 * @param vDist
+	 * @return	neměnný seznam lajn, nebo null, pokud bod leží mimo hranice světa nebo je dohled příliš malý
+	 */
+	public synchronized List<Line> getLines(double x, double y, double vDist) {
+		ensureLayout(vDist);
+		if (vDist < radius * MIN_RADIUS_RATIO) {
+			return null;
+		}
+
+		int cx = (int) Math.floor((x - layoutBounds.x) / cellSize);
+		int cy = (int) Math.floor((y - layoutBounds.y) / cellSize);
+		if (cx < 0 || cy < 0 || cx >= cols || cy >= rows) {
+			return null;
+		}
+
+		int index = cy * cols + cx;
+		List<Line> visible = cells.get(index);
+		if (visible == null) {
+			visible = computeCell(cx, cy);
+			cells.set(index, visible);
+		}
+		return visible;
+	}
+
+	/**
+	 * Spočítá všechny dosud nespočítané buňky pro dohled vDist
+	 *
+	 * @param vDist
+	 */
+	public synchronized void computeAll(double vDist) {
+		ensureLayout(vDist);
+		for (int cy = 0; cy < rows; cy++) {
+			for (int cx = 0; cx < cols; cx++) {
+				if (cells.get(cy * cols + cx) == null) {
+					cells.set(cy * cols + cx, computeCell(cx, cy));
+				}
+			}
+		}
+	}
+
+	public synchronized void lineAdded(Line line) {
+		Rectangle2D.Double bounds = getBounds(line);
+		lineBounds.put(line, bounds);
+		invalidate(bounds);
+	}
+
+	public synchronized void lineRemoved(Line line) {
+		Rectangle2D.Double bounds = lineBounds.remove(line);
+		if (bounds != null) {
+			invalidate(bounds);
+		}
+	}
+
+	public synchronized void lineChanged(Line line) {
+		Rectangle2D.Double bounds = getBounds(line);
+		Rectangle2D.Double oldBounds = lineBounds.put(line, bounds);
+		if (oldBounds != null) {
+			invalidate(oldBounds);
+		}
+		invalidate(bounds);
+	}
+
+	/**
+	 * Zneplatní buňky, ze kterých může být vidět cokoli v obdélníku bounds
+	 *
+	 * @param bounds
+	 */
+	private void invalidate(Rectangle2D.Double bounds) {
+		if (cells == null) {
+			return;
+		}
+		int cx1 = Math.max(0, (int) Math.floor((bounds.x - radius - layoutBounds.x) / cellSize));
+		int cy1 = Math.max(0, (int) Math.floor((bounds.y - radius - layoutBounds.y) / cellSize));
+		int cx2 = Math.min(cols - 1, (int) Math.floor((bounds.x + bounds.width + radius - layoutBounds.x) / cellSize));
+		int cy2 = Math.min(rows - 1, (int) Math.floor((bounds.y + bounds.height + radius - layoutBounds.y) / cellSize));
+		for (int cy = cy1; cy <= cy2; cy++) {
+			for (int cx = cx1; cx <= cx2; cx++) {
+				int index = cy * cols + cx;
+				List<Line> visible = cells.get(index);
+				if (visible != null) {
+					cells.set(index, null);
+					computedCells--;
+					candidateLines -= cellCandidates[index];
+					visibleLines -= visible.size();
+				}
+			}
+		}
+	}
+
+	private List<Line> computeCell(int cx, int cy) {
+		double x1 = layoutBounds.x + cx * cellSize, y1 = layoutBounds.y + cy * cellSize;
+		double x2 = x1 + cellSize, y2 = y1 + cellSize;
+
+		Set<Line> nearby = new HashSet<>();
+		world.lineGrid.getLinesIn(x1 - radius, y1 - radius, x2 + radius, y2 + radius, nearby);
+		List<Line> candidates = new ArrayList<>(nearby.size());
+		for (Line line : nearby) {
+			if (getRectDistanceSquare(line, x1, y1, x2, y2) <= radius * radius) {
+				candidates.add(line);
+			}
+		}
+		//stíny lajn vůči buňce, dlouhé lajny zakrývají nejčastěji a zkouší se jako první
+		Line[] occluders = candidates.toArray(new Line[candidates.size()]);
+		Arrays.sort(occluders, LENGTH_DESCENDING);
+		List<double[]> shadows = new ArrayList<>(occluders.length);
+		List<Line> shadowOwners = new ArrayList<>(occluders.length);
+		for (Line occluder : occluders) {
+			double[] shadow = getShadow(occluder, x1, y1, x2, y2);
+			if (shadow != null) {
+				shadows.add(shadow);
+				shadowOwners.add(occluder);
+			}
+		}
+
+		List<Line> visible = new ArrayList<>();
+		for (Line line : candidates) {
+			boolean hidden = false;
+			for (int i = 0; i < shadows.size() && !hidden; i++) {
+				hidden = shadowOwners.get(i) != line && inShadow(shadows.get(i), line.A) && inShadow(shadows.get(i), line.B);
+			}
+			if (!hidden) {
+				visible.add(line);
+			}
+		}
+
+		computedCells++;
+		cellCandidates[cy * cols + cx] = candidates.size();
+		candidateLines += candidates.size();
+		visibleLines += visible.size();
+		return Collections.unmodifiableList(visible);
+	}
+
+	/**
+	 * Čtverec vzdálenosti úsečky od obdélníku [x1; y1] - [x2; y2] (0, pokud do něj zasahuje)
+	 */
+	private static double getRectDistanceSquare(Line line, double x1, double y1, double x2, double y2) {
+		if (line.A.inRect(x1, y1, x2, y2) || line.B.inRect(x1, y1, x2, y2)
+			|| segmentsCross(line, x1, y1, x2, y1) || segmentsCross(line, x2, y1, x2, y2)
+			|| segmentsCross(line, x2, y2, x1, y2) || segmentsCross(line, x1, y2, x1, y1)) {
+			return 0;
+		}
+		double min = Double.MAX_VALUE;
+		if (line.isValid()) {
+			min = Math.min(
+				Math.min(line.getSegmentDistanceSquare(x1, y1), line.getSegmentDistanceSquare(x2, y1)),
+				Math.min(line.getSegmentDistanceSquare(x2, y2), line.getSegmentDistanceSquare(x1, y2)));
+		}
+		min = Math.min(min, NU.sqr(Math.max(0, Math.max(x1 - line.A.x, line.A.x - x2))) + NU.sqr(Math.max(0, Math.max(y1 - line.A.y, line.A.y - y2))));
+		min = Math.min(min, NU.sqr(Math.max(0, Math.max(x1 - line.B.x, line.B.x - x2))) + NU.sqr(Math.max(0, Math.max(y1 - line.B.y, line.B.y - y2))));
+		return min;
+	}
+
+	private static boolean segmentsCross(Line line, double x1, double y1, double x2, double y2) {
+		double vx = x2 - x1, vy = y2 - y1;
+		double sA = vx * (line.A.y - y1) - vy * (line.A.x - x1), sB = vx * (line.B.y - y1) - vy * (line.B.x - x1);
+		if ((sA > 0 && sB > 0) || (sA < 0 && sB < 0)) {
+			return false;
+		}
+		double wx = line.B.x - line.A.x, wy = line.B.y - line.A.y;
+		double s1 = wx * (y1 - line.A.y) - wy * (x1 - line.A.x), s2 = wx * (y2 - line.A.y) - wy * (x2 - line.A.x);
+		return !((s1 > 0 && s2 > 0) || (s1 < 0 && s2 < 0));
+	}
+
+	/**
+	 * Stín lajny occluder vrhaný obdélníkem [x1; y1] - [x2; y2]: body, na které vedou ze všech bodů obdélníku jen
+	 * paprsky protínající occluder. Obdélník musí ležet ostře na jedné straně přímky occluderu. Stín je průnikem
+	 * vzdálenější poloroviny a klínů mezi paprsky z rohů obdélníku na (o rezervu zkrácené) konce occluderu, protože
+	 * paprsky mezi dvěma konvexními množinami protínají occluder, právě když ho protínají paprsky mezi jejich vrcholy.
+	 *
+	 * @return	koeficienty polorovin [a, b, c] (bod je uvnitř, když a*x + b*y + c > 0), nebo null, pokud occluder
+	 * nemůže nic zakrýt
+	 */
+	private static double[] getShadow(Line occluder, double x1, double y1, double x2, double y2) {
+		double ax = occluder.A.x, ay = occluder.A.y;
+		double vx = occluder.B.x - ax, vy = occluder.B.y - ay;
+		double len = Math.sqrt(vx * vx + vy * vy);
+		if (len <= 2 * OCCLUSION_MARGIN) {
+			return null;
+		}
+		double margin = OCCLUSION_MARGIN * len;
+
+		double[] px = {x1, x2, x2, x1}, py = {y1, y1, y2, y2};
+		int side = 0;
+		for (int i = 0; i < 4; i++) {
+			double s = vx * (py[i] - ay) - vy * (px[i] - ax);
+			int sign = s > margin ? 1 : (s < -margin ? -1 : 0);
+			if (sign == 0 || (side != 0 && sign != side)) {
+				return null;
+			}
+			side = sign;
+		}
+
+		double[] shadow = new double[3 * 9];
+		//vzdálenější polorovina přímky occluderu (s rezervou)
+		shadow[0] = side * vy;
+		shadow[1] = -side * vx;
+		shadow[2] = -side * (vy * ax - vx * ay) - margin;
+
+		double shrink = OCCLUSION_MARGIN / len;
+		double sax = ax + vx * shrink, say = ay + vy * shrink;
+		double sbx = ax + vx * (1 - shrink), sby = ay + vy * (1 - shrink);
+		for (int i = 0; i < 4; i++) {
+			setWedgeSide(shadow, 3 + 6 * i, px[i], py[i], sax, say, sbx, sby);
+			setWedgeSide(shadow, 6 + 6 * i, px[i], py[i], sbx, sby, sax, say);
+		}
+		return shadow;
+	}
+
+	/**
+	 * Polorovina ohraničená paprskem z [px; py] přes [ex; ey], na jejíž straně leží [ox; oy]
+	 */
+	private static void setWedgeSide(double[] shadow, int offset, double px, double py, double ex, double ey, double ox, double oy) {
+		double dx = ex - px, dy = ey - py;
+		double sign = Math.signum(dx * (oy - py) - dy * (ox - px));
+		shadow[offset] = -sign * dy;
+		shadow[offset + 1] = sign * dx;
+		shadow[offset + 2] = sign * (dy * px - dx * py);
+	}
+
+	private static boolean inShadow(double[] shadow, Point p) {
+		for (int i = 0; i < shadow.length; i += 3) {
+			if (shadow[i] * p.x + shadow[i + 1] * p.y + shadow[i + 2] <= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public synchronized String getStats() {
+		if (cells == null) {
+			return "PVS: not computed yet";
+		}
+		return String.format("PVS: %d of %d cells computed, radius %.0f, %.1f of %.1f lines per cell kept",
+			computedCells, cols * rows, radius,
+			computedCells > 0 ? (double) visibleLines / computedCells : 0,
+			computedCells > 0 ? (double) candidateLines / computedCells : 0);
+	}
+}
@@ -0,0 +1,481 @@
+package net.trdlo.zelda.guan;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Svět načítaný po sektorech. Mapa se příkazem sectorize rozdělí do adresáře na čtvercové sektory: lajna je
+ * zapsaná ve všech sektorech, do kterých zasahuje její obdélník, bod v sektoru, kde leží, a v sektorech svých lajn.
+ * Body i lajny mají globální ID, takže se záznamy ze sousedních sektorů spojí do jediného objektu, který ve světě
+ * zůstává, dokud na něj odkazuje aspoň jeden načtený sektor. Textura je zapsaná (i se svým kotevním bodem) ve všech
+ * sektorech, do kterých zasahuje obdélník obrázku, jehož rozměry se zjistí při sectorize.
+ *
+ * Sektory v dohledu hráčů zvětšeném o LOAD_MARGIN se čtou na pozadí, do světa se ale
+ * přidávají a odebírají jen v update() na herním vlákně před výpočtem horizontů. TorchLight i pohledy tak vidí
+ * vždy ucelený svět. Sektor se uvolní, až je od všech hráčů dál než o EVICT_MARGIN.
+ */
+class SectorStreamer {
+
+	public static final double DEFAULT_SECTOR_SIZE = 512;
+	public static final double LOAD_MARGIN = 128;
+	public static final double EVICT_MARGIN = 2 * LOAD_MARGIN;
+
+	private static final String INDEX_FILE = "sectors.idx";
+	private static final int INDEX_MAGIC = 0x47534958;
+	private static final int SECTOR_MAGIC = 0x47534543;
+	private static final int VERSION = 2;
+
+	private static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "sector-loader");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	/**
+	 * Obsah souboru sektoru
+	 */
+	private static class SectorData {
+
+		int[] pointIds;
+		double[] pointCoords;
+		String[] descriptions;
+		int[] lineIds;
+		int[] lineEnds;
+		/**
+		 * ID kotevních bodů textur
+		 */
+		int[] textureIds;
+	}
+
+	private final World world;
+	private final File dir;
+	private final double sectorSize;
+	/**
+	 * Klíče sektorů, které v adresáři existují
+	 */
+	private final Set<Long> sectors;
+
+	private final ExecutorService loader;
+	private final Map<Long, Future<SectorData>> pending;
+	private final Map<Long, SectorData> resident;
+
+	private final Map<Integer, Point> residentPoints;
+	private final Map<Integer, Line> residentLines;
+	private final Map<Integer, Texture> residentTextures;
+	private final Map<Integer, Integer> pointRefs, lineRefs, textureRefs;
+
+	private long loadedSectors, evictedSectors;
+
+	private SectorStreamer(World world, File dir, double sectorSize, Set<Long> sectors) {
+		this.world = world;
+		this.dir = dir;
+		this.sectorSize = sectorSize;
+		this.sectors = sectors;
+		loader = Executors.newSingleThreadExecutor(DAEMON_THREADS);
+		pending = new HashMap<>();
+		resident = new LinkedHashMap<>();
+		residentPoints = new HashMap<>();
+		residentLines = new HashMap<>();
+		residentTextures = new HashMap<>();
+		pointRefs = new HashMap<>();
+		lineRefs = new HashMap<>();
+		textureRefs = new HashMap<>();
+	}
+
+	private static long key(int sx, int sy) {
+		return ((long) sx << 32) | (sy & 0xffffffffL);
+	}
+
+	private static int keyX(long key) {
+		return (int) (key >> 32);
+	}
+
+	private static int keyY(long key) {
+		return (int) key;
+	}
+
+	private static int sector(double coord, double sectorSize) {
+		return (int) Math.floor(coord / sectorSize);
+	}
+
+	private static File sectorFile(File dir, long key) {
+		return new File(dir, keyX(key) + "_" + keyY(key) + ".sector");
+	}
+
+	/**
+	 * Rozdělí geometrii světa do souborů sektorů v adresáři dir (hráči se neukládají)
+	 *
+	 * @param world
+	 * @param dir
+	 * @param sectorSize
+	 * @return	počet zapsaných sektorů
+	 * @throws IOException
+	 */
+	static int sectorize(World world, File dir, double sectorSize) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create directory " + dir);
+		}
+		//body a lajny mají v sektorech za ID svůj index ve světě
+		Point[] points = world.points.toArray(new Point[world.points.size()]);
+		Line[] lines = world.lines.toArray(new Line[world.lines.size()]);
+		Map<Point, Integer> pointIds = new HashMap<>(2 * points.length);
+		for (int i = 0; i < points.length; i++) {
+			pointIds.put(points[i], i);
+		}
+		int[] lineEnds = new int[2 * lines.length];
+		for (int i = 0; i < lines.length; i++) {
+			Integer a = pointIds.get(lines[i].A), b = pointIds.get(lines[i].B);
+			lineEnds[2 * i] = a != null ? a : -1;
+			lineEnds[2 * i + 1] = b != null ? b : -1;
+		}
+
+		Map<Long, Set<Integer>> sectorPoints = new HashMap<>();
+		Map<Long, List<Integer>> sectorLines = new HashMap<>();
+		Map<Long, Set<Integer>> sectorTextures = new HashMap<>();
+		for (int i = 0; i < points.length; i++) {
+			double x = points[i].x, y = points[i].y;
+			getSet(sectorPoints, key(sector(x, sectorSize), sector(y, sectorSize))).add(i);
+
+			String description = points[i].getDescription();
+			Matcher m;
+			if (description.regionMatches(true, 0, "img", 0, 3) && (m = World.PAT_IMAGE.matcher(description)).matches()) {
+				//obrázek se kreslí levým horním rohem v kotevním bodě; nečitelný obrázek zůstane jen v sektoru bodu
+				int[] size = readImageSize(m.group(1));
+				for (int sx = sector(x, sectorSize); sx <= sector(x + size[0], sectorSize); sx++) {
+					for (int sy = sector(y, sectorSize); sy <= sector(y + size[1], sectorSize); sy++) {
+						getSet(sectorPoints, key(sx, sy)).add(i);
+						getSet(sectorTextures, key(sx, sy)).add(i);
+					}
+				}
+			}
+		}
+		for (int i = 0; i < lines.length; i++) {
+			int a = lineEnds[2 * i], b = lineEnds[2 * i + 1];
+			if (a < 0 || b < 0) {
+				continue;
+			}
+			Point A = points[a], B = points[b];
+			int sx1 = sector(Math.min(A.x, B.x), sectorSize), sx2 = sector(Math.max(A.x, B.x), sectorSize);
+			int sy1 = sector(Math.min(A.y, B.y), sectorSize), sy2 = sector(Math.max(A.y, B.y), sectorSize);
+			for (int sx = sx1; sx <= sx2; sx++) {
+				for (int sy = sy1; sy <= sy2; sy++) {
+					long key = key(sx, sy);
+					List<Integer> keyLines = sectorLines.get(key);
+					if (keyLines == null) {
+						keyLines = new ArrayList<>();
+						sectorLines.put(key, keyLines);
+					}
+					keyLines.add(i);
+					Set<Integer> keyPoints = getSet(sectorPoints, key);
+					keyPoints.add(a);
+					keyPoints.add(b);
+				}
+			}
+		}
+
+		for (Map.Entry<Long, Set<Integer>> entry : sectorPoints.entrySet()) {
+			List<Integer> ids = sectorLines.get(entry.getKey());
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sectorFile(dir, entry.getKey()))))) {
+				out.writeInt(SECTOR_MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(entry.getValue().size());
+				for (int id : entry.getValue()) {
+					out.writeInt(id);
+					out.writeDouble(points[id].x);
+					out.writeDouble(points[id].y);
+					out.writeUTF(points[id].getDescription());
+				}
+				out.writeInt(ids != null ? ids.size() : 0);
+				if (ids != null) {
+					for (int id : ids) {
+						out.writeInt(id);
+						out.writeInt(lineEnds[2 * id]);
+						out.writeInt(lineEnds[2 * id + 1]);
+					}
+				}
+				Set<Integer> textures = sectorTextures.get(entry.getKey());
+				out.writeInt(textures != null ? textures.size() : 0);
+				if (textures != null) {
+					for (int id : textures) {
+						out.writeInt(id);
+					}
+				}
+			}
+		}
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, INDEX_FILE))))) {
+			out.writeInt(INDEX_MAGIC);
+			out.writeInt(VERSION);
+			out.writeDouble(sectorSize);
+			out.writeInt(sectorPoints.size());
+			for (long key : sectorPoints.keySet()) {
+				out.writeLong(key);
+			}
+		}
+		return sectorPoints.size();
+	}
+
+	/**
+	 * Rozměry obrázku podle hlavičky souboru, bez dekódování
+	 *
+	 * @return	{šířka, výška}, u nečitelného souboru {0, 0}
+	 */
+	private static int[] readImageSize(String fileName) {
+		try (ImageInputStream in = ImageIO.createImageInputStream(new File(fileName))) {
+			Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+			if (readers != null && readers.hasNext()) {
+				ImageReader reader = readers.next();
+				try {
+					reader.setInput(in);
+					return new int[]{reader.getWidth(0), reader.getHeight(0)};
+				} finally {
+					reader.dispose();
+				}
+			}
+		} catch (IOException ex) {
+			//textura se zapíše jen do sektoru kotevního bodu
+		}
+		return new int[]{0, 0};
+	}
+
+	private static Set<Integer> getSet(Map<Long, Set<Integer>> map, long key) {
+		Set<Integer> set = map.get(key);
+		if (set == null) {
+			set = new HashSet<>();
+			map.put(key, set);
+		}
+		return set;
+	}
+
+	/**
+	 * Otevře adresář vytvořený příkazem sectorize; svět by neměl obsahovat jinou geometrii
+	 *
+	 * @param world
+	 * @param dir
+	 * @return
+	 * @throws IOException
+	 */
+	static SectorStreamer open(World world, File dir) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(dir, INDEX_FILE))))) {
+			if (in.readInt() != INDEX_MAGIC || in.readInt() != VERSION) {
+				throw new IOException(dir + " does not contain a sectorized map!");
+			}
+			double sectorSize = in.readDouble();
+			int count = in.readInt();
+			Set<Long> sectors = new HashSet<>(2 * count);
+			for (int i = 0; i < count; i++) {
+				sectors.add(in.readLong());
+			}
+			return new SectorStreamer(world, dir, sectorSize, sectors);
+		}
+	}
+
+	private SectorData read(long key) throws IOException {
+		SectorData data = new SectorData();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sectorFile(dir, key))))) {
+			if (in.readInt() != SECTOR_MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Invalid sector file " + sectorFile(dir, key));
+			}
+			int pointCount = in.readInt();
+			data.pointIds = new int[pointCount];
+			data.pointCoords = new double[2 * pointCount];
+			data.descriptions = new String[pointCount];
+			for (int i = 0; i < pointCount; i++) {
+				data.pointIds[i] = in.readInt();
+				data.pointCoords[2 * i] = in.readDouble();
+				data.pointCoords[2 * i + 1] = in.readDouble();
+				data.descriptions[i] = in.readUTF();
+			}
+			int lineCount = in.readInt();
+			data.lineIds = new int[lineCount];
+			data.lineEnds = new int[2 * lineCount];
+			for (int i = 0; i < lineCount; i++) {
+				data.lineIds[i] = in.readInt();
+				data.lineEnds[2 * i] = in.readInt();
+				data.lineEnds[2 * i + 1] = in.readInt();
+			}
+			int textureCount = in.readInt();
+			data.textureIds = new int[textureCount];
+			for (int i = 0; i < textureCount; i++) {
+				data.textureIds[i] = in.readInt();
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Sektory, které mají být načtené: obdélníky dohledu hráčů zvětšené o margin
+	 */
+	private Set<Long> getSectorsAround(double margin) {
+		Set<Long> result = new HashSet<>();
+		for (Player p : world.players) {
+			double r = p.vDist + margin;
+			for (int sx = sector(p.x - r, sectorSize); sx <= sector(p.x + r, sectorSize); sx++) {
+				for (int sy = sector(p.y - r, sectorSize); sy <= sector(p.y + r, sectorSize); sy++) {
+					long key = key(sx, sy);
+					if (sectors.contains(key)) {
+						result.add(key);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Přidá do světa dočtené sektory, objedná načtení nových a uvolní vzdálené. Volá se z herního vlákna.
+	 */
+	public void update() {
+		Set<Long> wanted = getSectorsAround(LOAD_MARGIN);
+		Set<Long> kept = getSectorsAround(EVICT_MARGIN);
+
+		for (Iterator<Map.Entry<Long, Future<SectorData>>> it = pending.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Long, Future<SectorData>> entry = it.next();
+			if (!entry.getValue().isDone()) {
+				if (!kept.contains(entry.getKey())) {
+					entry.getValue().cancel(false);
+					it.remove();
+				}
+				continue;
+			}
+			it.remove();
+			try {
+				SectorData data = entry.getValue().get();
+				if (kept.contains(entry.getKey())) {
+					attach(data);
+					resident.put(entry.getKey(), data);
+					loadedSectors++;
+				}
+			} catch (InterruptedException | ExecutionException ex) {
+				//sektor se zkusí načíst znovu při příštím update
+			}
+		}
+
+		for (Iterator<Map.Entry<Long, SectorData>> it = resident.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Long, SectorData> entry = it.next();
+			if (!kept.contains(entry.getKey())) {
+				detach(entry.getValue());
+				it.remove();
+				evictedSectors++;
+			}
+		}
+
+		for (final long key : wanted) {
+			if (!resident.containsKey(key) && !pending.containsKey(key)) {
+				pending.put(key, loader.submit(new Callable<SectorData>() {
+					@Override
+					public SectorData call() throws Exception {
+						return read(key);
+					}
+				}));
+			}
+		}
+	}
+
+	private static int addRef(Map<Integer, Integer> refs, int id, int delta) {
+		Integer count = refs.get(id);
+		int result = (count != null ? count : 0) + delta;
+		if (result > 0) {
+			refs.put(id, result);
+		} else {
+			refs.remove(id);
+		}
+		return result;
+	}
+
+	private void attach(SectorData data) {
+		for (int i = 0; i < data.pointIds.length; i++) {
+			int id = data.pointIds[i];
+			if (addRef(pointRefs, id, 1) == 1) {
+				Point p = new Point(data.pointCoords[2 * i], data.pointCoords[2 * i + 1], data.descriptions[i]);
+				residentPoints.put(id, p);
+				world.points.add(p);
+			}
+		}
+		for (int id : data.textureIds) {
+			if (addRef(textureRefs, id, 1) == 1) {
+				Point p = residentPoints.get(id);
+				Matcher m = World.PAT_IMAGE.matcher(p.getDescription());
+				if (m.matches()) {
+					Texture t = new Texture(m.group(1), p);
+					residentTextures.put(id, t);
+					world.textures.add(t);
+				}
+			}
+		}
+		for (int i = 0; i < data.lineIds.length; i++) {
+			int id = data.lineIds[i];
+			if (addRef(lineRefs, id, 1) == 1) {
+				Line l = Line.constructFromTwoPoints(residentPoints.get(data.lineEnds[2 * i]), residentPoints.get(data.lineEnds[2 * i + 1]));
+				residentLines.put(id, l);
+				world.lines.add(l);
+			}
+		}
+	}
+
+	private void detach(SectorData data) {
+		for (int id : data.textureIds) {
+			if (addRef(textureRefs, id, -1) == 0) {
+				Texture t = residentTextures.remove(id);
+				if (t != null) {
+					world.textures.remove(t);
+				}
+			}
+		}
+		for (int id : data.lineIds) {
+			if (addRef(lineRefs, id, -1) == 0) {
+				world.lines.remove(residentLines.remove(id));
+			}
+		}
+		for (int id : data.pointIds) {
+			if (addRef(pointRefs, id, -1) == 0) {
+				world.points.remove(residentPoints.remove(id));
+			}
+		}
+	}
+
+	/**
+	 * Zastaví načítání a odebere ze světa všechnu načtenou geometrii
+	 */
+	public void close() {
+		loader.shutdownNow();
+		pending.clear();
+		for (SectorData data : resident.values()) {
+			detach(data);
+		}
+		resident.clear();
+	}
+
+	public String getStats() {
+		return String.format("Streaming %s: %d of %d sectors resident (size %.0f), %d loading, %d points, %d lines, %d textures; %d loaded, %d evicted so far",
+			dir, resident.size(), sectors.size(), sectorSize, pending.size(), residentPoints.size(), residentLines.size(), residentTextures.size(),
+			loadedSectors, evictedSectors);
+	}
+}
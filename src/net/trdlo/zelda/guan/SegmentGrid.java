@@ -0,0 +1,328 @@
+package net.trdlo.zelda.guan;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Map;
+
+/**
+ * Rovnoměrná mřížka nad úsečkami světa. Buňky jsou hashované podle svých souřadnic, takže mřížka není omezena
+ * hranicemi světa. Úsečka je zapsána ve všech buňkách, kterými prochází (s malou tolerancí kolem hran buněk).
+ */
+class SegmentGrid {
+
+	public static final double DEFAULT_CELL_SIZE = 64;
+	private static final double EPS = World.MINIMAL_DETECTABLE_DISTANCE;
+
+	private final double cellSize;
+	private final Map<Long, List<Line>> cells;
+	private final Map<Line, long[]> lineCells;
+
+	public SegmentGrid(double cellSize) {
+		assert cellSize > 0;
+
+		this.cellSize = cellSize;
+		cells = new HashMap<>();
+		lineCells = new HashMap<>();
+	}
+
+	public SegmentGrid() {
+		this(DEFAULT_CELL_SIZE);
+	}
+
+	private int cell(double coord) {
+		return (int) Math.floor(coord / cellSize);
+	}
+
+	private static long key(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+
+	/**
+	 * Seznam klíčů buněk, kterými úsečka prochází
+	 *
+	 * @param line
+	 * @return
+	 */
+	private long[] rasterize(Line line) {
+		double x1 = line.A.x, y1 = line.A.y, x2 = line.B.x, y2 = line.B.y;
+		if (x1 > x2) {
+			double t = x1;
+			x1 = x2;
+			x2 = t;
+			t = y1;
+			y1 = y2;
+			y2 = t;
+		}
+
+		List<Long> keys = new ArrayList<>();
+		double dx = x2 - x1;
+		int cx1 = cell(x1 - EPS), cx2 = cell(x2 + EPS);
+		for (int cx = cx1; cx <= cx2; cx++) {
+			double ya, yb;
+			if (dx > 0) {
+				double t1 = Math.max(0, (cx * cellSize - EPS - x1) / dx);
+				double t2 = Math.min(1, ((cx + 1) * cellSize + EPS - x1) / dx);
+				ya = y1 + t1 * (y2 - y1);
+				yb = y1 + t2 * (y2 - y1);
+			} else {
+				ya = y1;
+				yb = y2;
+			}
+			int cy1 = cell(Math.min(ya, yb) - EPS), cy2 = cell(Math.max(ya, yb) + EPS);
+			for (int cy = cy1; cy <= cy2; cy++) {
+				keys.add(key(cx, cy));
+			}
+		}
+
+		long[] result = new long[keys.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = keys.get(i);
+		}
+		return result;
+	}
+
+	public void add(Line line) {
+		if (lineCells.containsKey(line)) {
+			return;
+		}
+		long[] keys = rasterize(line);
+		for (long k : keys) {
+			List<Line> bucket = cells.get(k);
+			if (bucket == null) {
+				bucket = new ArrayList<>(4);
+				cells.put(k, bucket);
+			}
+			bucket.add(line);
+		}
+		lineCells.put(line, keys);
+	}
+
+	public void remove(Line line) {
+		long[] keys = lineCells.remove(line);
+		if (keys == null) {
+			return;
+		}
+		for (long k : keys) {
+			List<Line> bucket = cells.get(k);
+			if (bucket != null) {
+				bucket.remove(line);
+				if (bucket.isEmpty()) {
+					cells.remove(k);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Přepočítá buňky úsečky po změně jejích koncových bodů
+	 *
+	 * @param line
+	 */
+	public void update(Line line) {
+		remove(line);
+		add(line);
+	}
+
+	public int size() {
+		return lineCells.size();
+	}
+
+	/**
+	 * Naplní result všemi úsečkami, které mohou zasahovat do obdélníku [x1; y1] - [x2; y2]
+	 *
+	 * @param x1
+	 * @param y1
+	 * @param x2
+	 * @param y2
+	 * @param result	kolekce pro výsledek, duplicity odstraní jen Set
+	 */
+	public void getLinesIn(double x1, double y1, double x2, double y2, Collection<Line> result) {
+		int cx1 = cell(Math.min(x1, x2)), cx2 = cell(Math.max(x1, x2));
+		int cy1 = cell(Math.min(y1, y2)), cy2 = cell(Math.max(y1, y2));
+		//velký obdélník má víc buněk, než je neprázdných, projdou se rovnou neprázdné buňky
+		if ((long) (cx2 - cx1 + 1) * (cy2 - cy1 + 1) > cells.size()) {
+			for (Map.Entry<Long, List<Line>> entry : cells.entrySet()) {
+				int cx = (int) (entry.getKey() >> 32), cy = (int) (long) entry.getKey();
+				if (cx >= cx1 && cx <= cx2 && cy >= cy1 && cy <= cy2) {
+					result.addAll(entry.getValue());
+				}
+			}
+			return;
+		}
+		for (int cx = cx1; cx <= cx2; cx++) {
+			for (int cy = cy1; cy <= cy2; cy++) {
+				List<Line> bucket = cells.get(key(cx, cy));
+				if (bucket != null) {
+					result.addAll(bucket);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Naplní result platnými úsečkami, jejichž vzdálenost od bodu [x; y] je nejvýše maxDist
+	 *
+	 * @param x
+	 * @param y
+	 * @param maxDist
+	 * @param result	kolekce pro výsledek, každá úsečka je v ní nejvýše jednou
+	 */
+	public void getLinesWithin(double x, double y, double maxDist, Collection<Line> result) {
+		double maxDistSqr = maxDist * maxDist;
+		Set<Line> checked = new HashSet<>();
+		int cx1 = cell(x - maxDist), cx2 = cell(x + maxDist);
+		int cy1 = cell(y - maxDist), cy2 = cell(y + maxDist);
+		for (int cx = cx1; cx <= cx2; cx++) {
+			for (int cy = cy1; cy <= cy2; cy++) {
+				List<Line> bucket = cells.get(key(cx, cy));
+				if (bucket != null) {
+					for (Line line : bucket) {
+						if (checked.add(line) && line.isValid() && line.getSegmentDistanceSquare(x, y) <= maxDistSqr) {
+							result.add(line);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Nejbližší platná úsečka k bodu [x; y], jejíž vzdálenost je menší než maxDist. Buňky se procházejí
+	 * po čtvercových prstencích od buňky bodu, dokud další prstenec může obsahovat bližší úsečku.
+	 *
+	 * @param x
+	 * @param y
+	 * @param maxDist
+	 * @return	nejbližší úsečka nebo null
+	 */
+	public Line getNearestLine(double x, double y, double maxDist) {
+		List<Line> nearest = getNearestLines(x, y, 1, maxDist);
+		return nearest.isEmpty() ? null : nearest.get(0);
+	}
+
+	/**
+	 * Nejvýše count platných úseček nejbližších k bodu [x; y], seřazených podle vzdálenosti; vzdálenost každé
+	 * z nich je menší než maxDist
+	 *
+	 * @param x
+	 * @param y
+	 * @param count
+	 * @param maxDist
+	 * @return
+	 */
+	public List<Line> getNearestLines(double x, double y, int count, double maxDist) {
+		List<Line> nearest = new ArrayList<>(count);
+		if (count <= 0) {
+			return nearest;
+		}
+		double[] distances = new double[count];
+		double maxDistSqr = maxDist * maxDist;
+		Set<Line> checked = count > 1 ? new HashSet<Line>() : null;
+
+		int cx = cell(x), cy = cell(y);
+		int maxRing = (int) Math.ceil(maxDist / cellSize) + 1;
+		for (int ring = 0; ring <= maxRing; ring++) {
+			//všechny úsečky, které ještě nebyly zkontrolovány, jsou od [x; y] dál než (ring - 1) buněk
+			double ringDist = (ring - 1) * cellSize;
+			if (ringDist > 0 && (ringDist * ringDist >= maxDistSqr
+					|| (nearest.size() == count && ringDist * ringDist >= distances[count - 1]))) {
+				break;
+			}
+			for (int i = cx - ring; i <= cx + ring; i++) {
+				for (int j = cy - ring; j <= cy + ring; j++) {
+					if (i != cx - ring && i != cx + ring && j != cy - ring && j != cy + ring) {
+						//vnitřek prstence už byl prohledán
+						j = cy + ring - 1;
+						continue;
+					}
+					List<Line> bucket = cells.get(key(i, j));
+					if (bucket == null) {
+						continue;
+					}
+					for (Line line : bucket) {
+						if (!line.isValid() || (checked != null && !checked.add(line))) {
+							continue;
+						}
+						double distSqr = line.getSegmentDistanceSquare(x, y);
+						if (distSqr >= maxDistSqr || (nearest.size() == count && distSqr >= distances[count - 1])) {
+							continue;
+						}
+						//vložení na místo, seznam má nejvýše count prvků
+						int k = Math.min(nearest.size(), count - 1);
+						if (nearest.size() == count) {
+							nearest.remove(count - 1);
+						}
+						while (k > 0 && distances[k - 1] > distSqr) {
+							distances[k] = distances[k - 1];
+							k--;
+						}
+						distances[k] = distSqr;
+						nearest.add(k, line);
+					}
+				}
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Nalezne nejbližší úsečku, kterou protne polopřímka ray (z bodu A směrem k B). Prochází buňky podél paprsku
+	 * a končí, jakmile už žádná další buňka nemůže obsahovat bližší průsečík, nebo po překročení maxDist.
+	 *
+	 * @param ray	paprsek
+	 * @param maxDist	vzdálenost, za kterou se již nehledá
+	 * @param ignored	bod, s nímž související lajny se ignorují (nebo null)
+	 * @return	nejbližší protnutá úsečka nebo null
+	 */
+	public Line getFirstRayCollision(Line ray, double maxDist, Point ignored) {
+		double ox = ray.A.x, oy = ray.A.y;
+		double dx = ray.B.x - ox, dy = ray.B.y - oy;
+		double len = Math.sqrt(dx * dx + dy * dy);
+		if (len == 0) {
+			return null;
+		}
+		dx /= len;
+		dy /= len;
+
+		int cx = cell(ox), cy = cell(oy);
+		int stepX = dx > 0 ? 1 : -1, stepY = dy > 0 ? 1 : -1;
+		double tMaxX = dx > 0 ? ((cx + 1) * cellSize - ox) / dx : (dx < 0 ? (cx * cellSize - ox) / dx : Double.POSITIVE_INFINITY);
+		double tMaxY = dy > 0 ? ((cy + 1) * cellSize - oy) / dy : (dy < 0 ? (cy * cellSize - oy) / dy : Double.POSITIVE_INFINITY);
+		double tDeltaX = dx != 0 ? cellSize / Math.abs(dx) : Double.POSITIVE_INFINITY;
+		double tDeltaY = dy != 0 ? cellSize / Math.abs(dy) : Double.POSITIVE_INFINITY;
+
+		Line nearestLine = null;
+		double nearestSqr = Double.MAX_VALUE;
+		while (true) {
+			List<Line> bucket = cells.get(key(cx, cy));
+			if (bucket != null) {
+				for (Line line : bucket) {
+					if (ignored == null || !line.hasEndPoint(ignored)) {
+						double distSqr = ray.getRaySegmentIntersectionDistanceSquare(line);
+						if (distSqr >= 0 && distSqr < nearestSqr) {
+							nearestSqr = distSqr;
+							nearestLine = line;
+						}
+					}
+				}
+			}
+
+			double tExit = Math.min(tMaxX, tMaxY);
+			if ((nearestLine != null && nearestSqr <= tExit * tExit) || tExit > maxDist) {
+				return nearestLine;
+			}
+
+			if (tMaxX < tMaxY) {
+				cx += stepX;
+				tMaxX += tDeltaX;
+			} else {
+				cy += stepY;
+				tMaxY += tDeltaY;
+			}
+		}
+	}
+}
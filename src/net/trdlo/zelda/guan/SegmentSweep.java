@@ -0,0 +1,541 @@
+package net.trdlo.zelda.guan;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Hledání všech průsečíků lajn zametací přímkou (Bentley-Ottmann) v čase O((n + k) log n). Přímka se posouvá zleva
+ * doprava po událostech (koncové body a nalezené průsečíky), stav drží lajny, které přímku protínají, seřazené podle
+ * y; průsečíky se testují jen mezi sousedy ve stavu. Hlásí se průsečíky ležící uvnitř některé lajny (křížení a
+ * T-spoje), společné koncové body ne. Lajny se v nich dají rozdělit (příkaz crossings split).
+ */
+class SegmentSweep {
+
+	/**
+	 * Tolerance pro průchod lajny bodem události a pro sloučení blízkých průsečíků; události samotné se řadí přesně,
+	 * jinak by se u strmých lajn rozešlo pořadí ve stavu
+	 */
+	private static final double EPS = 1e-7;
+	/**
+	 * Tolerance parametru průsečíku, aby se našly i T-spoje v koncových bodech
+	 */
+	private static final double PARAM_EPS = 1e-9;
+	private static final int MAX_SPLIT_PASSES = 4;
+
+	static class Crossing {
+
+		final double x, y;
+		/**
+		 * Lajny, uvnitř kterých průsečík leží
+		 */
+		final List<Line> lines = new ArrayList<>(2);
+		/**
+		 * Koncový bod jiné lajny ležící v průsečíku (T-spoj), nebo null
+		 */
+		Point vertex;
+
+		Crossing(double x, double y, Point vertex) {
+			this.x = x;
+			this.y = y;
+			this.vertex = vertex;
+		}
+	}
+
+	private static class Segment {
+
+		final Line line;
+		final int id;
+		/**
+		 * Levý a pravý konec v pořadí událostí
+		 */
+		final Point left, right;
+		final double x1, y1, x2, y2;
+		final boolean vertical;
+		final double slope;
+
+		Segment(Line line, int id, Point left, Point right) {
+			this.line = line;
+			this.id = id;
+			this.left = left;
+			this.right = right;
+			x1 = left.x;
+			y1 = left.y;
+			x2 = right.x;
+			y2 = right.y;
+			vertical = x1 == x2;
+			slope = vertical ? Double.POSITIVE_INFINITY : (y2 - y1) / (x2 - x1);
+		}
+	}
+
+	private static class Event {
+
+		final double x, y;
+		/**
+		 * Lajny, které v události začínají
+		 */
+		final List<Segment> starts = new ArrayList<>(2);
+		/**
+		 * Lajny, které v události končí
+		 */
+		final List<Segment> ends = new ArrayList<>(2);
+		/**
+		 * Lajny, jejichž průsečík událost vytvořil
+		 */
+		final Set<Segment> crossers = new LinkedHashSet<>(2);
+		/**
+		 * Některý koncový bod lajny ležící v události
+		 */
+		Point vertex;
+
+		Event(double x, double y) {
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	private static final Comparator<Event> EVENT_ORDER = new Comparator<Event>() {
+		@Override
+		public int compare(Event a, Event b) {
+			return compareXY(a.x, a.y, b.x, b.y);
+		}
+	};
+
+	private static int compareXY(double ax, double ay, double bx, double by) {
+		int c = Double.compare(ax, bx);
+		return c != 0 ? c : Double.compare(ay, by);
+	}
+
+	private static boolean near(double ax, double ay, double bx, double by) {
+		return Math.abs(ax - bx) <= EPS && Math.abs(ay - by) <= EPS;
+	}
+
+	private final TreeSet<Event> events = new TreeSet<>(EVENT_ORDER);
+	private final TreeSet<Segment> status;
+	/**
+	 * Zarážka pro hledání ve stavu: leží v bodě události a řadí se před všechny lajny, které jím procházejí
+	 */
+	private final Segment probe = new Segment(null, -1, new Point(), new Point(1, 0));
+	private double sweepX, sweepY;
+	/**
+	 * Pořadí lajn procházejících bodem události těsně před ním (true), nebo těsně za ním
+	 */
+	private boolean before;
+
+	private final List<Crossing> crossings = new ArrayList<>();
+
+	private SegmentSweep(Collection<Line> lines) {
+		status = new TreeSet<>(new Comparator<Segment>() {
+			@Override
+			public int compare(Segment a, Segment b) {
+				if (a == b) {
+					return 0;
+				}
+				double ya = yAt(a), yb = yAt(b);
+				if (Math.abs(ya - yb) > EPS) {
+					return ya < yb ? -1 : 1;
+				}
+				if (a == probe) {
+					return -1;
+				}
+				if (b == probe) {
+					return 1;
+				}
+				int c = Double.compare(a.slope, b.slope);
+				if (before) {
+					c = -c;
+				}
+				return c != 0 ? c : Integer.compare(a.id, b.id);
+			}
+		});
+
+		int id = 0;
+		for (Line l : lines) {
+			Point a = l.getA(), b = l.getB();
+			int order = compareXY(a.x, a.y, b.x, b.y);
+			if (order == 0) {
+				continue;
+			}
+			Segment s = order < 0 ? new Segment(l, id++, a, b) : new Segment(l, id++, b, a);
+			getEvent(s.x1, s.y1, s.left).starts.add(s);
+			getEvent(s.x2, s.y2, s.right).ends.add(s);
+		}
+	}
+
+	/**
+	 * Všechny průsečíky uvnitř lajn
+	 *
+	 * @param lines
+	 * @return
+	 */
+	static List<Crossing> find(Collection<Line> lines) {
+		SegmentSweep sweep = new SegmentSweep(lines);
+		Event e;
+		while ((e = sweep.events.pollFirst()) != null) {
+			sweep.handle(e);
+		}
+		return sweep.crossings;
+	}
+
+	/**
+	 * Najde průsečíky lajn světa a zprávu o nich pro konzoli
+	 *
+	 * @param world
+	 * @return
+	 */
+	static String check(World world) {
+		long start = System.currentTimeMillis();
+		List<Crossing> found = find(world.lines);
+		Set<Line> affected = new LinkedHashSet<>();
+		for (Crossing c : found) {
+			affected.addAll(c.lines);
+		}
+		StringBuilder sb = new StringBuilder(String.format("Found %d crossings on %d lines in %d ms", found.size(), affected.size(), System.currentTimeMillis() - start));
+		for (int i = 0; i < found.size() && i < 5; i++) {
+			sb.append(i == 0 ? ": " : ", ").append(String.format("[%.2f; %.2f]%s", found.get(i).x, found.get(i).y, found.get(i).vertex != null ? " T" : ""));
+		}
+		if (found.size() > 5) {
+			sb.append(", ...");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Rozdělí lajny světa v jejich průsečících: v T-spoji se použije koncový bod druhé lajny, v křížení nový bod
+	 * společný všem lajnám, které jím procházejí. Přichycení blízkých průsečíků posune části lajn až o
+	 * MINIMAL_DETECTABLE_DISTANCE, čímž mohou vzniknout nové drobné průsečíky; rozdělování se proto opakuje, dokud
+	 * nějaké zbývají (nejvýš MAX_SPLIT_PASSES krát)
+	 *
+	 * @param world
+	 * @return	zpráva pro konzoli
+	 */
+	static String split(World world) {
+		long start = System.currentTimeMillis();
+		int splitLines = 0, splitCrossings = 0, added = 0;
+		List<Crossing> found = find(world.lines);
+		for (int pass = 0; pass < MAX_SPLIT_PASSES && !found.isEmpty(); pass++) {
+			Set<Line> cut = new LinkedHashSet<>();
+			for (Crossing c : found) {
+				cut.addAll(c.lines);
+			}
+			splitLines += cut.size();
+			splitCrossings += found.size();
+			added += split(world, found);
+			found = find(world.lines);
+		}
+		String message = String.format("Split %d lines at %d crossings into %d lines in %d ms", splitLines, splitCrossings, added, System.currentTimeMillis() - start);
+		return found.isEmpty() ? message : message + String.format(", %d crossings left", found.size());
+	}
+
+	/**
+	 * Jeden průchod rozdělení v nalezených průsečících
+	 *
+	 * @return	počet přidaných lajn
+	 */
+	private static int split(World world, List<Crossing> found) {
+		Map<Line, List<Point>> cuts = new LinkedHashMap<>();
+		List<Point> created = new ArrayList<>();
+		Map<Long, List<Point>> snap = new HashMap<>();
+		for (Crossing c : found) {
+			Point p = c.vertex;
+			if (p == null || !world.points.contains(p)) {
+				p = snapPoint(c, snap);
+			}
+			if (p == null) {
+				p = new Point(c.x, c.y);
+				world.points.add(p);
+				created.add(p);
+			}
+			addSnapPoint(p, snap);
+			for (Line l : c.lines) {
+				List<Point> cut = cuts.get(l);
+				if (cut == null) {
+					cut = new ArrayList<>(2);
+					cuts.put(l, cut);
+				}
+				cut.add(p);
+			}
+		}
+
+		int added = 0;
+		for (Map.Entry<Line, List<Point>> entry : cuts.entrySet()) {
+			final Line line = entry.getKey();
+			List<Point> cut = entry.getValue();
+			Collections.sort(cut, new Comparator<Point>() {
+				@Override
+				public int compare(Point a, Point b) {
+					return Double.compare(a.getDistanceSquare(line.getA()), b.getDistanceSquare(line.getA()));
+				}
+			});
+			world.lines.remove(line);
+			Point from = line.getA();
+			for (Point p : cut) {
+				if (p == from || p == line.getB()) {
+					continue;
+				}
+				added += addLine(world, from, p);
+				from = p;
+			}
+			added += addLine(world, from, line.getB());
+		}
+
+		//body příliš blízko koncům lajn nakonec nic nerozdělily
+		for (Point p : created) {
+			if (p.connectedLines == null || p.connectedLines.isEmpty()) {
+				world.points.remove(p);
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * Bod, do kterého se průsečík přichytí: konec některé z jeho lajn nebo jiný průsečík blíž než
+	 * MINIMAL_DETECTABLE_DISTANCE, jinak by po rozdělení vznikly nové, téměř nulové průsečíky
+	 */
+	private static Point snapPoint(Crossing c, Map<Long, List<Point>> snap) {
+		Point at = new Point(c.x, c.y);
+		for (Line l : c.lines) {
+			if (at.getDistance(l.getA()) < World.MINIMAL_DETECTABLE_DISTANCE) {
+				return l.getA();
+			}
+			if (at.getDistance(l.getB()) < World.MINIMAL_DETECTABLE_DISTANCE) {
+				return l.getB();
+			}
+		}
+		int cx = snapCell(c.x), cy = snapCell(c.y);
+		for (int x = cx - 1; x <= cx + 1; x++) {
+			for (int y = cy - 1; y <= cy + 1; y++) {
+				List<Point> bucket = snap.get(snapKey(x, y));
+				if (bucket != null) {
+					for (Point p : bucket) {
+						if (at.getDistance(p) < World.MINIMAL_DETECTABLE_DISTANCE) {
+							return p;
+						}
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	private static void addSnapPoint(Point p, Map<Long, List<Point>> snap) {
+		long k = snapKey(snapCell(p.x), snapCell(p.y));
+		List<Point> bucket = snap.get(k);
+		if (bucket == null) {
+			bucket = new ArrayList<>(1);
+			snap.put(k, bucket);
+		}
+		if (!bucket.contains(p)) {
+			bucket.add(p);
+		}
+	}
+
+	private static int snapCell(double coord) {
+		return (int) Math.floor(coord / World.MINIMAL_DETECTABLE_DISTANCE);
+	}
+
+	private static long snapKey(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+
+	/**
+	 * Přidá lajnu, pokud mezi body ještě není (části překrývajících se lajn)
+	 */
+	private static int addLine(World world, Point a, Point b) {
+		if (a == b) {
+			return 0;
+		}
+		if (a.connectedLines != null) {
+			for (Line l : a.connectedLines) {
+				if (l.getOtherPoint(a) == b) {
+					return 0;
+				}
+			}
+		}
+		world.lines.add(Line.constructFromTwoPoints(a, b));
+		return 1;
+	}
+
+	private Event getEvent(double x, double y, Point vertex) {
+		Event e = new Event(x, y);
+		Event existing = events.ceiling(e);
+		if (existing != null && EVENT_ORDER.compare(existing, e) == 0) {
+			e = existing;
+		} else {
+			events.add(e);
+		}
+		if (e.vertex == null) {
+			e.vertex = vertex;
+		}
+		return e;
+	}
+
+	private double yAt(Segment s) {
+		if (s == probe) {
+			return sweepY;
+		}
+		if (s.vertical) {
+			return Math.max(s.y1, Math.min(s.y2, sweepY));
+		}
+		//u strmé lajny by zaokrouhlení sweepX posunulo y mimo lajnu
+		return Math.max(Math.min(s.y1, s.y2), Math.min(Math.max(s.y1, s.y2), s.y1 + (sweepX - s.x1) * s.slope));
+	}
+
+	private void handle(Event e) {
+		sweepX = e.x;
+		sweepY = e.y;
+		before = true;
+
+		//lajny ve stavu procházející bodem události jsou ve stavu za sebou, za zarážkou
+		Set<Segment> group = new LinkedHashSet<>();
+		for (Segment s : status.tailSet(probe, false)) {
+			if (Math.abs(yAt(s) - e.y) > EPS) {
+				break;
+			}
+			group.add(s);
+		}
+		//lajny, které v události končí nebo jejichž průsečík ji vytvořil, i kdyby je zaokrouhlení odsunulo o víc než EPS
+		for (Segment s : e.ends) {
+			if (!group.contains(s) && (status.contains(s) || containsSlow(s))) {
+				group.add(s);
+			}
+		}
+		for (Segment s : e.crossers) {
+			if (!group.contains(s) && (status.contains(s) || containsSlow(s))) {
+				group.add(s);
+			}
+		}
+
+		List<Segment> interior = new ArrayList<>();
+		for (Segment s : group) {
+			if (compareXY(s.x2, s.y2, e.x, e.y) != 0) {
+				interior.add(s);
+			}
+		}
+		addCrossing(e, interior);
+
+		for (Segment s : group) {
+			if (!status.remove(s)) {
+				removeSlow(s);
+			}
+		}
+
+		before = false;
+		List<Segment> inserted = new ArrayList<>(e.starts);
+		inserted.addAll(interior);
+		for (Segment s : inserted) {
+			status.add(s);
+		}
+
+		if (inserted.isEmpty()) {
+			check(status.lower(probe), status.higher(probe), e);
+		} else {
+			Segment lowest = null, highest = null;
+			for (Segment s : inserted) {
+				if (lowest == null || status.comparator().compare(s, lowest) < 0) {
+					lowest = s;
+				}
+				if (highest == null || status.comparator().compare(s, highest) > 0) {
+					highest = s;
+				}
+			}
+			check(status.lower(lowest), lowest, e);
+			check(highest, status.higher(highest), e);
+		}
+	}
+
+	/**
+	 * Zaznamená průsečík v události; průsečíky spočítané z různých dvojic lajn, které se liší jen zaokrouhlením, se
+	 * sloučí do jednoho
+	 */
+	private void addCrossing(Event e, List<Segment> interior) {
+		List<Line> lines = new ArrayList<>(interior.size());
+		for (Segment s : interior) {
+			//lajna začínající nebo končící těsně vedle události v ní neleží uvnitř
+			if (!near(s.x1, s.y1, e.x, e.y) && !near(s.x2, s.y2, e.x, e.y)) {
+				lines.add(s.line);
+			}
+		}
+		Crossing c = null;
+		for (int i = crossings.size() - 1; i >= 0 && crossings.get(i).x >= e.x - EPS; i--) {
+			if (near(crossings.get(i).x, crossings.get(i).y, e.x, e.y)) {
+				c = crossings.get(i);
+				break;
+			}
+		}
+		if (c == null) {
+			if (lines.size() > 1 || (!lines.isEmpty() && e.vertex != null)) {
+				c = new Crossing(e.x, e.y, e.vertex);
+				c.lines.addAll(lines);
+				crossings.add(c);
+			}
+			return;
+		}
+		for (Line l : lines) {
+			if (!c.lines.contains(l)) {
+				c.lines.add(l);
+			}
+		}
+		if (c.vertex == null) {
+			c.vertex = e.vertex;
+		}
+	}
+
+	/**
+	 * Přidá událost pro průsečík sousedních lajn, pokud leží za aktuální událostí
+	 */
+	private void check(Segment a, Segment b, Event current) {
+		if (a == null || b == null) {
+			return;
+		}
+		double dx1 = a.x2 - a.x1, dy1 = a.y2 - a.y1;
+		double dx2 = b.x2 - b.x1, dy2 = b.y2 - b.y1;
+		double d = dx1 * dy2 - dy1 * dx2;
+		if (d == 0) {
+			//rovnoběžné; překryvy najdou události v koncových bodech
+			return;
+		}
+		double t = ((b.x1 - a.x1) * dy2 - (b.y1 - a.y1) * dx2) / d;
+		double u = ((b.x1 - a.x1) * dy1 - (b.y1 - a.y1) * dx1) / d;
+		if (t < -PARAM_EPS || t > 1 + PARAM_EPS || u < -PARAM_EPS || u > 1 + PARAM_EPS) {
+			return;
+		}
+		double x = a.x1 + t * dx1, y = a.y1 + t * dy1;
+		if (compareXY(x, y, current.x, current.y) > 0) {
+			Event e = getEvent(x, y, null);
+			e.crossers.add(a);
+			e.crossers.add(b);
+		}
+	}
+
+	/**
+	 * Nouzové hledání lajny ve stavu, pokud ji zaokrouhlení přesunulo mimo její místo v pořadí
+	 */
+	private boolean containsSlow(Segment s) {
+		for (Segment t : status) {
+			if (t == s) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void removeSlow(Segment s) {
+		Iterator<Segment> it = status.iterator();
+		while (it.hasNext()) {
+			if (it.next() == s) {
+				it.remove();
+				return;
+			}
+		}
+	}
+}
@@ -1,23 +1,30 @@
 package net.trdlo.zelda.guan;
 
-import java.awt.image.BufferedImage;
-
 /**
  *
  * @author bayer
  */
 public class Texture {
 
-	private final BufferedImage image;
+	private final String fileName;
 	private final Point position;
 
-	public Texture(BufferedImage image, Point position) {
-		this.image = image;
+	public Texture(String fileName, Point position) {
+		this.fileName = fileName;
 		this.position = position;
 	}
 
-	public BufferedImage getImage() {
-		return image;
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Obrázek z TextureCache; dokud se načítá, je to zástupný obrázek
+	 *
+	 * @return	obrázek, nebo null, pokud soubor nejde přečíst
+	 */
+	public MipMap getImage() {
+		return TextureCache.getInstance().get(fileName);
 	}
 
 	public Point getPosition() {
@@ -0,0 +1,201 @@
+package net.trdlo.zelda.guan;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.imageio.ImageIO;
+
+/**
+ * Sdílená cache obrázků textur. Obrázek se načte až při prvním vykreslení, a to na pozadí; do té doby se kreslí
+ * zástupný obrázek. Načtené obrázky se převádějí do formátu obrazovky, aby je Java2D mohla kreslit akcelerovaně,
+ * a ukládají se jako MipMap (zmenšeniny a dlaždice).
+ * Celková velikost obrázků je omezená rozpočtem, při jeho překročení se zahazují nejdéle nekreslené (LRU) a při
+ * dalším použití se načtou znovu.
+ */
+class TextureCache {
+
+	public static final long DEFAULT_BUDGET = 64L << 20;
+
+	private static final int PLACEHOLDER_SIZE = 32;
+	private static final int PLACEHOLDER_TILE = 8;
+
+	private static TextureCache instance;
+
+	public static synchronized TextureCache getInstance() {
+		if (instance == null) {
+			instance = new TextureCache();
+		}
+		return instance;
+	}
+
+	private final ExecutorService decoder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "texture-decoder");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * Načtené obrázky podle názvu souboru v pořadí od nejdéle nepoužitého
+	 */
+	private final Map<String, MipMap> images = new LinkedHashMap<>(16, 0.75f, true);
+	private final Set<String> loading = new HashSet<>();
+	/**
+	 * Soubory, které nejde přečíst; jejich textury se nekreslí
+	 */
+	private final Set<String> failed = new HashSet<>();
+	private final MipMap placeholder;
+	/**
+	 * Hlášení z vlákna decoder pro konzoli, předává je World.update na herním vlákně
+	 */
+	private final Queue<String> reports = new ConcurrentLinkedQueue<>();
+
+	private long budget = DEFAULT_BUDGET;
+	private long used;
+	private int decodedCount, evictedCount;
+
+	private TextureCache() {
+		BufferedImage image = createImage(PLACEHOLDER_SIZE, PLACEHOLDER_SIZE, Transparency.TRANSLUCENT);
+		Graphics2D g = image.createGraphics();
+		for (int x = 0; x < PLACEHOLDER_SIZE; x += PLACEHOLDER_TILE) {
+			for (int y = 0; y < PLACEHOLDER_SIZE; y += PLACEHOLDER_TILE) {
+				g.setColor((x + y) / PLACEHOLDER_TILE % 2 == 0 ? new Color(128, 128, 128, 96) : new Color(64, 64, 64, 96));
+				g.fillRect(x, y, PLACEHOLDER_TILE, PLACEHOLDER_TILE);
+			}
+		}
+		g.dispose();
+		placeholder = MipMap.single(image);
+	}
+
+	/**
+	 * Obrázek ze souboru; pokud ještě není načtený, spustí jeho načítání a vrátí zástupný obrázek
+	 *
+	 * @param fileName
+	 * @return	obrázek, zástupný obrázek, nebo null, pokud soubor nejde přečíst
+	 */
+	public synchronized MipMap get(final String fileName) {
+		MipMap img = images.get(fileName);
+		if (img != null) {
+			return img;
+		}
+		if (failed.contains(fileName)) {
+			return null;
+		}
+		if (loading.add(fileName)) {
+			decoder.execute(new Runnable() {
+				@Override
+				public void run() {
+					decode(fileName);
+				}
+			});
+		}
+		return placeholder;
+	}
+
+	/**
+	 * Běží ve vlákně decoder
+	 */
+	private void decode(String fileName) {
+		MipMap img = null;
+		try {
+			BufferedImage read = ImageIO.read(new File(fileName));
+			if (read != null) {
+				img = MipMap.build(toCompatible(read));
+			} else {
+				reports.add("Could not decode texture " + fileName + ": unknown image format");
+			}
+		} catch (IOException | RuntimeException | OutOfMemoryError ex) {
+			reports.add("Could not decode texture " + fileName + ": " + ex);
+		} finally {
+			//soubor, který se nepodařilo načíst z jakéhokoli důvodu, se už znovu nezkouší
+			synchronized (this) {
+				loading.remove(fileName);
+				if (img == null) {
+					failed.add(fileName);
+				} else {
+					images.put(fileName, img);
+					used += img.getByteSize();
+					decodedCount++;
+					evict(fileName);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Zahazuje nejdéle nepoužité obrázky, dokud se nevejdou do rozpočtu; právě načtený obrázek zůstane vždy
+	 */
+	private void evict(String keep) {
+		Iterator<Map.Entry<String, MipMap>> it = images.entrySet().iterator();
+		while (used > budget && it.hasNext()) {
+			Map.Entry<String, MipMap> entry = it.next();
+			if (entry.getKey().equals(keep)) {
+				continue;
+			}
+			used -= entry.getValue().getByteSize();
+			it.remove();
+			evictedCount++;
+		}
+	}
+
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		evict(null);
+	}
+
+	/**
+	 * Další hlášení o chybě načítání, nebo null
+	 *
+	 * @return
+	 */
+	public String pollReport() {
+		return reports.poll();
+	}
+
+	public synchronized String getStats() {
+		return String.format("Textures: %d images, %.1f of %.1f MB, %d loading, %d unreadable; %d decoded, %d evicted so far",
+			images.size(), used / 1048576.0, budget / 1048576.0, loading.size(), failed.size(), decodedCount, evictedCount);
+	}
+
+	/**
+	 * Kopie obrázku ve formátu obrazovky (bez obrazovky se obrázek nechá, jak je)
+	 */
+	private static BufferedImage toCompatible(BufferedImage img) {
+		if (GraphicsEnvironment.isHeadless()) {
+			return img;
+		}
+		GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+		if (img.getColorModel().equals(gc.getColorModel(img.getTransparency()))) {
+			return img;
+		}
+		BufferedImage compatible = gc.createCompatibleImage(img.getWidth(), img.getHeight(), img.getTransparency());
+		Graphics2D g = compatible.createGraphics();
+		g.drawImage(img, 0, 0, null);
+		g.dispose();
+		return compatible;
+	}
+
+	static BufferedImage createImage(int width, int height, int transparency) {
+		if (GraphicsEnvironment.isHeadless()) {
+			return new BufferedImage(width, height, transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+		}
+		return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration().createCompatibleImage(width, height, transparency);
+	}
+}
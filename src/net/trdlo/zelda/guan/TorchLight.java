@@ -1,46 +1,199 @@
 package net.trdlo.zelda.guan;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import net.trdlo.zelda.NU;
 
+/**
+ * Výpočet horizontu (polygonu viditelnosti) pozorovatele. Instance si mezi výpočty drží pomocné kolekce, pole a
+ * body, takže opakovaný výpočet do stejného PolygonBuffer téměř nealokuje. Body a lajny světa se během výpočtu
+ * jen čtou, veškeré mezivýsledky jsou v instanci; různé instance tak mohou počítat souběžně (jedna instance ale
+ * vždy jen v jednom vlákně).
+ */
 public class TorchLight {
 
 	/**
-	 * Jednoduchá dvojice Line a Point použitá jako "current line/point" ve výpočtu horizontu
+	 * Bod na radaru spolu s úhlem a čtvercem vzdálenosti vůči pozorovateli, platný jen v rámci jednoho výpočtu
+	 */
+	private static class RadarPoint {
+
+		/**
+		 * Bod světa, nebo ownPoint pro body spočítané během výpočtu
+		 */
+		public Point point;
+		public final Point ownPoint = new Point();
+		public double angle, distSqr;
+		/**
+		 * Lajna, na které leží průsečík s kružnicí dohledu (u ostatních bodů null)
+		 */
+		public Line circleLine;
+	}
+
+	/**
+	 * Jednoduchá dvojice Line a RadarPoint použitá jako "current line/point" ve výpočtu horizontu
 	 */
 	private static class LinePoint {
 
-		public final Point point;
-		public final Line line;
+		public RadarPoint point;
+		public Line line;
 
-		public LinePoint(Point point, Line line) {
+		public void set(RadarPoint point, Line line) {
 			this.point = point;
 			this.line = line;
 		}
 	}
 
+	/**
+	 * Úsečka spolu s intervalem úhlů (vůči orientaci pozorovatele), ve kterém ji paprsek od pozorovatele protíná
+	 */
+	private static class ActiveEdge {
+
+		public Line line;
+		public double start, end;
+		public int seq;
+	}
+
+	private static final Comparator<ActiveEdge> START_COMPARATOR = new Comparator<ActiveEdge>() {
+		@Override
+		public int compare(ActiveEdge o1, ActiveEdge o2) {
+			return Double.compare(o1.start, o2.start);
+		}
+	};
+
+	private static final Comparator<ActiveEdge> END_COMPARATOR = new Comparator<ActiveEdge>() {
+		@Override
+		public int compare(ActiveEdge o1, ActiveEdge o2) {
+			return Double.compare(o1.end, o2.end);
+		}
+	};
+
 	private static final int HORIZONT_SEGMENTS = 24;
 	private static final double HORIZONT_ANGLE_LIMIT = 2 * Math.PI / HORIZONT_SEGMENTS;
 
-	private final Set<Line> lines;
-	private final Player observer;
+	private Collection<Line> lines;
+	private SegmentGrid grid;
+	private PotentiallyVisibleSet pvs;
+	private Player observer;
 	private final Point observerPoint;
 
-	private final SortedSet<Point> radarPoints;
+	private final SortedSet<RadarPoint> radarPoints;
+
+	/**
+	 * Úsečky protínající aktuální paprsek rotačního sweepu, seřazené podle vzdálenosti od pozorovatele
+	 */
+	private final TreeSet<ActiveEdge> activeEdges;
+	private ActiveEdge[] edgePool, edgesByStart, edgesByEnd;
+	private int edgeCount, startIndex, endIndex;
+
+	/**
+	 * Pomocné objekty znovupoužívané mezi výpočty
+	 */
+	private final Set<Line> nearbyLines;
+	private final double[] circleIntersections;
+	private final LinePoint current, collision;
+	private final Line ray;
+	private final Point rayTarget, pointImage;
+	private RadarPoint[] pointPool;
+	private int pointPoolUsed;
 
 	public static List<Point> getPointList(Set<Line> lines, Player observer) {
-		TorchLight tl = new TorchLight(lines, observer);
+		PolygonBuffer horizont = new PolygonBuffer();
+		new TorchLight().computeHorizont(lines, null, observer, horizont);
+		return horizont.toPointList();
+	}
+
+	/**
+	 * Spočítá horizont nad lajnami světa, kolize hledá pomocí jeho mřížky úseček
+	 *
+	 * @param world
+	 * @param observer
+	 * @return
+	 */
+	public static List<Point> getPointList(World world, Player observer) {
+		PolygonBuffer horizont = new PolygonBuffer();
+		new TorchLight().computeHorizont(world, observer, horizont);
+		return horizont.toPointList();
+	}
+
+	public TorchLight() {
+		observerPoint = new Point();
+		rayTarget = new Point();
+		pointImage = new Point();
+		ray = Line.constructFromTwoPoints(observerPoint, rayTarget);
+		current = new LinePoint();
+		collision = new LinePoint();
+		nearbyLines = new HashSet<>();
+		circleIntersections = new double[4];
+		pointPool = new RadarPoint[64];
+		edgePool = edgesByStart = edgesByEnd = new ActiveEdge[0];
+
+		radarPoints = new TreeSet<>(new Comparator<RadarPoint>() {
+			@Override
+			public int compare(RadarPoint o1, RadarPoint o2) {
+				if (o1.angle != o2.angle) {
+					return o1.angle < o2.angle ? -1 : 1;
+				} else {
+					double distDiff = o1.distSqr - o2.distSqr;
+					if (distDiff != 0) {
+						return distDiff < 0 ? -1 : 1;
+					} else {
+						return o1.point.hashCode() - o2.point.hashCode();
+					}
+				}
+			}
+		});
+
+		activeEdges = new TreeSet<>(new Comparator<ActiveEdge>() {
+			@Override
+			public int compare(ActiveEdge o1, ActiveEdge o2) {
+				if (o1 == o2) {
+					return 0;
+				}
+				//obě úsečky jsou zároveň aktivní, porovnají se na paprsku uprostřed společného intervalu úhlů
+				double from = Math.max(Math.max(o1.start, o2.start), -Math.PI);
+				double to = Math.min(Math.min(o1.end, o2.end), Math.PI);
+				double angle = observer.orientation + (from + to) / 2;
+				double dx = Math.cos(angle), dy = Math.sin(angle);
+				double d1 = getRayDistance(o1.line, dx, dy), d2 = getRayDistance(o2.line, dx, dy);
+				if (d1 != d2) {
+					return d1 < d2 ? -1 : 1;
+				}
+				return o1.seq < o2.seq ? -1 : (o1.seq == o2.seq ? 0 : 1);
+			}
+		});
+	}
 
-		return tl.computeHorizont();
+	/**
+	 * Spočítá horizont pozorovatele nad lajnami světa, kolize hledá pomocí jeho mřížky úseček
+	 *
+	 * @param world
+	 * @param observer
+	 * @param horizont	buffer pro výsledný polygon, předchozí obsah se zahodí
+	 */
+	public void computeHorizont(World world, Player observer, PolygonBuffer horizont) {
+		computeHorizont(world.lines, world.lineGrid, world.pvsEnabled ? world.pvs : null, observer, horizont);
 	}
 
-	private TorchLight(Set<Line> lines, Player observer) {
+	/**
+	 * Spočítá horizont pozorovatele
+	 *
+	 * @param lines	všechny lajny
+	 * @param grid	mřížka nad stejnými lajnami, nebo null (pak se kolize hledají přes všechny lajny)
+	 * @param observer
+	 * @param horizont	buffer pro výsledný polygon, předchozí obsah se zahodí
+	 */
+	public void computeHorizont(Collection<Line> lines, SegmentGrid grid, Player observer, PolygonBuffer horizont) {
+		computeHorizont(lines, grid, null, observer, horizont);
+	}
+
+	private void computeHorizont(Collection<Line> lines, SegmentGrid grid, PotentiallyVisibleSet pvs, Player observer, PolygonBuffer horizont) {
 		if (lines == null) {
 			throw new NullPointerException("lines");
 		}
@@ -49,64 +202,248 @@ public class TorchLight {
 		}
 
 		this.lines = lines;
+		this.grid = grid;
+		this.pvs = pvs;
 		this.observer = observer;
-		observerPoint = new Point(observer.x, observer.y);
+		observerPoint.x = observer.x;
+		observerPoint.y = observer.y;
+		pointPoolUsed = 0;
+
+		try {
+			computeHorizont(horizont);
+		} finally {
+			radarPoints.clear();
+			for (int i = 0; i < pointPoolUsed; i++) {
+				pointPool[i].point = null;
+				pointPool[i].circleLine = null;
+			}
+			pointPoolUsed = 0;
+			activeEdges.clear();
+			nearbyLines.clear();
+			for (int i = 0; i < edgeCount; i++) {
+				edgePool[i].line = null;
+			}
+			edgeCount = 0;
+			current.set(null, null);
+			collision.set(null, null);
+			this.lines = null;
+			this.grid = null;
+			this.pvs = null;
+			this.observer = null;
+		}
+	}
 
-		radarPoints = new TreeSet<>(new Comparator<Point>() {
-			@Override
-			public int compare(Point o1, Point o2) {
-				if (o1.tempAngle != o2.tempAngle) {
-					return o1.tempAngle < o2.tempAngle ? -1 : 1;
-				} else {
-					double distDiff = o1.tempDistSqr - o2.tempDistSqr;
-					if (distDiff != 0) {
-						return distDiff < 0 ? -1 : 1;
-					} else {
-						return o1.hashCode() - o2.hashCode();
+	/**
+	 * Bod radaru z poolu instance, platí jen do konce právě probíhajícího výpočtu
+	 *
+	 * @param point	bod světa, nebo null pro vlastní bod (jeho souřadnice nastaví volající)
+	 * @return
+	 */
+	private RadarPoint borrowPoint(Point point) {
+		if (pointPoolUsed == pointPool.length) {
+			pointPool = Arrays.copyOf(pointPool, pointPool.length * 2);
+		}
+		RadarPoint rp = pointPool[pointPoolUsed];
+		if (rp == null) {
+			rp = pointPool[pointPoolUsed] = new RadarPoint();
+		}
+		pointPoolUsed++;
+		rp.point = point != null ? point : rp.ownPoint;
+		rp.circleLine = null;
+		return rp;
+	}
+
+	private RadarPoint borrowPoint(double x, double y) {
+		RadarPoint rp = borrowPoint(null);
+		rp.point.x = x;
+		rp.point.y = y;
+		return rp;
+	}
+
+	/**
+	 * Zařadí bod světa na radar, pokud je v dohledu a zorném úhlu pozorovatele
+	 *
+	 * @param point
+	 */
+	private void addRadarPoint(Point point) {
+		double distSqr = point.getDistanceSquare(observerPoint);
+		if (distSqr <= NU.sqr(observer.vDist)) {
+			double angle = angleByObserver(point);
+			if (Math.abs(angle) <= observer.fov / 2) {
+				RadarPoint rp = borrowPoint(point);
+				rp.angle = angle;
+				rp.distSqr = distSqr;
+				if (!radarPoints.add(rp)) {
+					//bod sdílený více lajnami už na radaru je
+					pointPoolUsed--;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test, zda bod radaru leží na lajně (je jejím koncovým bodem nebo jejím průsečíkem s kružnicí dohledu)
+	 *
+	 * @param rp
+	 * @param line
+	 * @return
+	 */
+	private static boolean isOnLine(RadarPoint rp, Line line) {
+		return rp.circleLine == line || (rp.point.connectedLines != null && rp.point.connectedLines.contains(line));
+	}
+
+	/**
+	 * Nastaví sdílený paprsek tak, aby vedl od pozorovatele na bod target
+	 *
+	 * @param target
+	 * @return
+	 */
+	private Line setRay(Point target) {
+		ray.setAB(observerPoint, target);
+		return ray;
+	}
+
+	/**
+	 * Vzdálenost od pozorovatele k přímce úsečky podél paprsku s jednotkovým směrem [dx; dy]
+	 */
+	private double getRayDistance(Line line, double dx, double dy) {
+		double vx = line.B.x - line.A.x, vy = line.B.y - line.A.y;
+		double denominator = dx * vy - dy * vx;
+		if (Math.abs(denominator) < Line.MINIMAL_DENOMINOATOR) {
+			//paprsek je s úsečkou rovnoběžný, rozhoduje bližší z koncových bodů
+			return Math.sqrt(Math.min(line.A.getDistanceSquare(observerPoint), line.B.getDistanceSquare(observerPoint)));
+		}
+		return ((line.A.x - observer.x) * vy - (line.A.y - observer.y) * vx) / denominator;
+	}
+
+	private double angleByObserver(Point p) {
+		return NU.normalizeAngle(Math.atan2(p.y - observer.y, p.x - observer.x) - observer.orientation);
+	}
+
+	private void addEdge(Line line, double start, double end) {
+		if (edgeCount == edgePool.length) {
+			int capacity = Math.max(64, edgePool.length * 2);
+			edgePool = Arrays.copyOf(edgePool, capacity);
+			edgesByStart = new ActiveEdge[capacity];
+			edgesByEnd = new ActiveEdge[capacity];
+		}
+		ActiveEdge edge = edgePool[edgeCount];
+		if (edge == null) {
+			edge = edgePool[edgeCount] = new ActiveEdge();
+		}
+		edge.line = line;
+		edge.start = start;
+		edge.end = end;
+		edge.seq = edgeCount;
+		edgeCount++;
+	}
+
+	/**
+	 * Připraví události rotačního sweepu: každá úsečka je aktivní v (otevřeném) intervalu úhlů, pod kterým ji
+	 * pozorovatel vidí. Úsečka za zády pozorovatele (přes úhel PI) se rozdělí na dva intervaly.
+	 *
+	 * @param nearby	lajny v dosahu pozorovatele
+	 */
+	private void loadEdges(Collection<Line> nearby) {
+		double halfFov = observer.fov / 2;
+		edgeCount = 0;
+		for (Line line : nearby) {
+			double angleA = angleByObserver(line.A), angleB = angleByObserver(line.B);
+			double low = Math.min(angleA, angleB), high = Math.max(angleA, angleB);
+			if (low == high) {
+				continue;
+			}
+			if (high - low <= Math.PI) {
+				if (high > -halfFov && low < halfFov) {
+					addEdge(line, low, high);
+				}
+			} else {
+				if (high < halfFov) {
+					addEdge(line, high, Double.POSITIVE_INFINITY);
+				}
+				if (low > -halfFov) {
+					addEdge(line, Double.NEGATIVE_INFINITY, low);
+				}
+			}
+		}
+
+		System.arraycopy(edgePool, 0, edgesByStart, 0, edgeCount);
+		System.arraycopy(edgePool, 0, edgesByEnd, 0, edgeCount);
+		Arrays.sort(edgesByStart, 0, edgeCount, START_COMPARATOR);
+		Arrays.sort(edgesByEnd, 0, edgeCount, END_COMPARATOR);
+		startIndex = endIndex = 0;
+		activeEdges.clear();
+	}
+
+	/**
+	 * Posune sweep na úhel angle: vloží úsečky, jejichž interval začíná před ním, a odebere ty, které na něm nebo
+	 * před ním končí
+	 *
+	 * @param angle
+	 */
+	private void advanceSweep(double angle) {
+		while (true) {
+			boolean canRemove = endIndex < edgeCount && edgesByEnd[endIndex].end <= angle;
+			boolean canInsert = startIndex < edgeCount && edgesByStart[startIndex].start < angle;
+			if (canRemove && (!canInsert || edgesByEnd[endIndex].end <= edgesByStart[startIndex].start)) {
+				ActiveEdge removed = edgesByEnd[endIndex++];
+				if (!activeEdges.remove(removed)) {
+					//numericky nekonzistentní porovnání (např. křížící se zdi), dohledá se podle identity
+					for (Iterator<ActiveEdge> it = activeEdges.iterator(); it.hasNext();) {
+						if (it.next() == removed) {
+							it.remove();
+							break;
+						}
 					}
 				}
+			} else if (canInsert) {
+				activeEdges.add(edgesByStart[startIndex++]);
+			} else {
+				break;
 			}
-		});
+		}
 	}
 
 	private boolean fullCircleView() {
 		return observer.fov >= Math.PI * 2;
 	}
 
+	/**
+	 * Lajny, které mohou zasahovat do kruhu viditelnosti pozorovatele; je-li k dispozici PVS buňky pozorovatele,
+	 * vezmou se jen lajny z ní
+	 *
+	 * @return
+	 */
+	private Collection<Line> getNearbyLines() {
+		if (pvs != null) {
+			List<Line> visible = pvs.getLines(observer.x, observer.y, observer.vDist);
+			if (visible != null) {
+				return visible;
+			}
+		}
+		if (grid == null) {
+			return lines;
+		}
+		nearbyLines.clear();
+		grid.getLinesIn(observer.x - observer.vDist, observer.y - observer.vDist, observer.x + observer.vDist, observer.y + observer.vDist, nearbyLines);
+		return nearbyLines;
+	}
+
 	private void loadPoints() {
-		double distSqrLimit = NU.sqr(observer.vDist);
-		for (Line line : lines) {
-			Point point = line.getA();
-			point.tempDistSqr = point.getDistanceSquare(observerPoint);
-			if (point.tempDistSqr <= distSqrLimit) {
-				point.tempAngleByObserver(observer);
-				if (Math.abs(point.tempAngle) <= observer.fov / 2) {
-					//point.setDescription(String.format("%d°", NU.radToDeg(point.tempAngle)));
-					radarPoints.add(point);
-				}
-			}// else {
-			//	point.setDescription("");
-			//}
-
-			point = line.getB();
-			point.tempDistSqr = point.getDistanceSquare(observerPoint);
-			if (point.tempDistSqr <= distSqrLimit) {
-				point.tempAngleByObserver(observer);
-				if (Math.abs(point.tempAngle) <= observer.fov / 2) {
-					//point.setDescription(String.format("%d°", NU.radToDeg(point.tempAngle)));
-					radarPoints.add(point);
-				}
-			}// else {
-			//	point.setDescription("");
-			//}
-
-			for (Point p : line.getSegmentCircleIntersection(observerPoint, observer.vDist)) {
-				p.addConnectedLine(line);
-				p.tempAngleByObserver(observer);
-				if (Math.abs(p.tempAngle) <= observer.fov / 2) {
-					p.tempDistSqr = observer.vDistSqr;
-					//p.setDescription(String.format("%d°", NU.radToDeg(p.tempAngle)));
-					radarPoints.add(p);
+		Collection<Line> nearby = getNearbyLines();
+		loadEdges(nearby);
+		for (Line line : nearby) {
+			addRadarPoint(line.getA());
+			addRadarPoint(line.getB());
+
+			int count = line.getSegmentCircleIntersection(observer.x, observer.y, observer.vDist, circleIntersections);
+			for (int i = 0; i < count; i++) {
+				RadarPoint rp = borrowPoint(circleIntersections[2 * i], circleIntersections[2 * i + 1]);
+				rp.circleLine = line;
+				rp.angle = angleByObserver(rp.point);
+				if (Math.abs(rp.angle) <= observer.fov / 2) {
+					rp.distSqr = observer.vDistSqr;
+					radarPoints.add(rp);
 				}
 			}
 		}
@@ -114,66 +451,99 @@ public class TorchLight {
 
 	private Line createLeftEdgeRay() {
 		double dir = observer.orientation - observer.fov / 2;
-		Point point = new Point(observer.x + Math.cos(dir), observer.y + Math.sin(dir));
-		point.tempAngle = -observer.fov / 2;
-		return Line.constructFromTwoPoints(observerPoint, point);
+		rayTarget.x = observer.x + Math.cos(dir);
+		rayTarget.y = observer.y + Math.sin(dir);
+		return setRay(rayTarget);
 	}
 
 	private Line createRightEdgeRay() {
 		double dir = observer.orientation + observer.fov / 2;
-		Point point = new Point(observer.x + Math.cos(dir), observer.y + Math.sin(dir));
-		point.tempAngle = observer.fov / 2;
-		return Line.constructFromTwoPoints(observerPoint, point);
+		rayTarget.x = observer.x + Math.cos(dir);
+		rayTarget.y = observer.y + Math.sin(dir);
+		return setRay(rayTarget);
 	}
 
 	/**
-	 * Vytvoří dvojici úsečka+bod, který splňuje kritéria: nejbližší kolize v množině lajn, nebo nový bod na hranici
-	 * horizontu (line pak zůstává null)
+	 * Naplní result dvojicí úsečka+bod, který splňuje kritéria: nejbližší kolize v množině lajn, nebo nový bod na
+	 * hranici horizontu (line pak zůstává null)
 	 *
 	 * @param ray	paprsek, na kterém se hledá
-	 * @param lines	množina lajn pro hledání kolize
 	 * @param ignored	bod, s nímž související lany se ignorují
-	 * @return
+	 * @param result	dvojice pro výsledek
 	 */
-	private LinePoint getFirstCollision(Line ray, Collection<Line> lines, Point ignored) {
+	private void getFirstCollision(Line ray, Point ignored, LinePoint result) {
 		double nearestSqr = Double.MAX_VALUE;
 		Line nearestLine = null;
-		Point nearestPoint = null;
-
-		for (Line line : lines) {
-			if (ignored == null || !line.hasEndPoint(ignored)) {
-				Point ip = ray.getRaySegmentIntersection(line);
-				if (ip != null) {
-					double distSqr = ray.A.getDistanceSquare(ip);
-					if (distSqr < nearestSqr) {
+
+		if (grid != null) {
+			nearestLine = grid.getFirstRayCollision(ray, observer.vDist, ignored);
+			if (nearestLine != null) {
+				nearestSqr = ray.getRaySegmentIntersectionDistanceSquare(nearestLine);
+			}
+		} else {
+			for (Line line : lines) {
+				if (ignored == null || !line.hasEndPoint(ignored)) {
+					double distSqr = ray.getRaySegmentIntersectionDistanceSquare(line);
+					if (distSqr >= 0 && distSqr < nearestSqr) {
 						nearestSqr = distSqr;
 						nearestLine = line;
-						nearestPoint = ip;
 					}
 				}
 			}
 		}
 
-		if (nearestPoint != null && nearestSqr <= observer.vDistSqr) {
-			nearestPoint.tempDistSqr = nearestSqr;
-			nearestPoint.tempAngleByObserver(observer);
-			return new LinePoint(nearestPoint, nearestLine);
+		setCollision(ray, nearestLine, nearestSqr, result);
+	}
+
+	/**
+	 * Jako getFirstCollision, ale nejbližší úsečku vezme ze stromu aktivních úseček; paprsek musí vést pod úhlem,
+	 * na který byl posunut sweep
+	 *
+	 * @param ray	paprsek, na kterém se hledá
+	 * @param ignored	bod, s nímž související lany se ignorují
+	 * @param result	dvojice pro výsledek
+	 */
+	private void getFirstActiveCollision(Line ray, Point ignored, LinePoint result) {
+		for (ActiveEdge edge : activeEdges) {
+			if (ignored == null || !edge.line.hasEndPoint(ignored)) {
+				double distSqr = ray.getRaySegmentIntersectionDistanceSquare(edge.line);
+				if (distSqr >= 0) {
+					setCollision(ray, edge.line, distSqr, result);
+					return;
+				}
+			}
+		}
+		setCollision(ray, null, Double.MAX_VALUE, result);
+	}
+
+	private void setCollision(Line ray, Line nearestLine, double nearestSqr, LinePoint result) {
+		RadarPoint rp = borrowPoint(null);
+		if (nearestLine != null && nearestSqr <= observer.vDistSqr) {
+			ray.getRaySegmentIntersection(nearestLine, rp.point);
+			rp.distSqr = nearestSqr;
+			rp.angle = angleByObserver(rp.point);
+			result.set(rp, nearestLine);
 		} else {
-			Point horizontPoint = ray.getPointAtDistanceFromA(observer.vDist);
-			horizontPoint.tempDistSqr = observer.vDistSqr;
-			horizontPoint.tempAngleByObserver(observer);
-			return new LinePoint(horizontPoint, null);
+			ray.getPointAtDistanceFromA(observer.vDist, rp.point);
+			rp.distSqr = observer.vDistSqr;
+			rp.angle = angleByObserver(rp.point);
+			result.set(rp, null);
 		}
 	}
 
 	/**
 	 * Vybere lajnu (nebo vrati null), ktera vede od raye v "leve" polorovine nejostreji zpet k pozorovateli
 	 *
+	 * @param radarPoint	referencni bod
 	 * @param ray	ray od pozorovatele na referencni bod
 	 * @param ignoredLine	lajna, kterou ignorujeme
 	 * @return
 	 */
-	private Line getSharpestLine(Line ray, Line ignoredLine, boolean allowRayCollinear) {
+	private Line getSharpestLine(RadarPoint radarPoint, Line ray, Line ignoredLine, boolean allowRayCollinear) {
+		if (radarPoint.circleLine != null) {
+			//průsečík s kružnicí dohledu leží uprostřed jediné lajny
+			return radarPoint.circleLine != ignoredLine ? radarPoint.circleLine : null;
+		}
 		Line sharpestLine = null;
 		Point point = ray.B;
 		double bestAngle = -Double.MAX_VALUE;
@@ -199,33 +569,29 @@ public class TorchLight {
 		return sharpestLine;
 	}
 
-	public List<Point> computeHorizont() {
+	private void computeHorizont(PolygonBuffer horizont) {
 		loadPoints();
 
-		List<Point> horizont = new ArrayList<>();/* {
-			private int i = 0;
-			@Override
-			public boolean add(Point e) {
-				e.setDescription(String.valueOf(i++));
-				return super.add(e);
-			}
-		};*/
+		horizont.clear();
 
 		if (!fullCircleView()) {
 			horizont.add(observerPoint);
 		}
 
-		LinePoint current = getFirstCollision(createLeftEdgeRay(), lines, null);
-		current.point.tempAngle = -observer.fov / 2; //fix +3.14 possible by Atan2
+		getFirstCollision(createLeftEdgeRay(), null, current);
+		current.point.angle = -observer.fov / 2; //fix +3.14 possible by Atan2
 
-		Point lastPoint = getFirstCollision(createRightEdgeRay(), lines, null).point;
-		lastPoint.tempAngle = +observer.fov / 2; //fix -3.14 possible by Atan2
+		getFirstCollision(createRightEdgeRay(), null, collision);
+		RadarPoint lastPoint = collision.point;
+		lastPoint.angle = +observer.fov / 2; //fix -3.14 possible by Atan2
 
 		radarPoints.add(lastPoint);
 
 		//int pointCounter = 0;
-		for (Point point : radarPoints) {
+		for (RadarPoint radarPoint : radarPoints) {
 			//pointCounter++;
+			advanceSweep(radarPoint.angle);
+			Point point = radarPoint.point;
 
 			if (current.line == null) {
 				//pripad: neni current.line => chodime po obvodu (vnejsi kruznice)
@@ -234,7 +600,7 @@ public class TorchLight {
 				//NEVZNIKA VYRESENIM ***: zanorenim na horizont podel "svisle" lajny
 				//VZNIKA DALE: pokud kruznice protne vrchol (spojnici dvou usecek) a nadetekuje tak 2 body, jeden pro kazdou z usecek
 				//vyjimka: 2 shodné body, ale jeden -pi a druhy +pi (pri pohledu 360° a neni nic na dohled, jde se z prvniho bodu primo na posledni)
-				if (point.getDistanceSquare(current.point) < World.MINIMAL_DETECTABLE_DISTANCE && Math.abs(point.tempAngle - current.point.tempAngle) < Math.PI) {
+				if (point.getDistanceSquare(current.point.point) < World.MINIMAL_DETECTABLE_DISTANCE && Math.abs(radarPoint.angle - current.point.angle) < Math.PI) {
 					continue;
 //					try {
 //						Thread.sleep(1000 * 5);
@@ -247,64 +613,64 @@ public class TorchLight {
 				}
 
 				//na konci krokovani obvodu se vynorime k bodu nebo narazime na bod na obvodu, skrz který vede lajna
-				Line sharpestLine = getSharpestLine(Line.constructFromTwoPoints(observerPoint, point), null, false);
+				Line sharpestLine = getSharpestLine(radarPoint, setRay(point), null, false);
 				//z tohoto bodu vede lajna doprava, vybereme tu nejlepší
 				//nebo extrém: bod sice není jedináček, ale jediná lajna z něho vede "svisle" -> není sharp
 				//výjimka z extrému: lastPoint
-				if (sharpestLine == null && point != lastPoint) {
+				if (sharpestLine == null && radarPoint != lastPoint) {
 					//pak chceme další bod na řadě! Dokrokujeme to ke smysluplnému bodu
 					continue;
 				}
 
-				double angleDiff = point.tempAngle - current.point.tempAngle;
+				double angleDiff = radarPoint.angle - current.point.angle;
 				int segments = 1 + (int) (angleDiff / HORIZONT_ANGLE_LIMIT);
-				int steps = segments + (point.tempDistSqr < observer.vDistSqr ? 1 : 0);
+				int steps = segments + (radarPoint.distSqr < observer.vDistSqr ? 1 : 0);
 
-				double angle = observer.orientation + current.point.tempAngle;
+				double angle = observer.orientation + current.point.angle;
 				double angleStep = angleDiff / segments;
 
-				horizont.add(current.point);
+				horizont.add(current.point.point);
 				for (int i = 1; i < steps; i++) {
 					angle += angleStep;
-					horizont.add(new Point(observer.x + Math.cos(angle) * observer.vDist, observer.y + Math.sin(angle) * observer.vDist));
+					horizont.add(observer.x + Math.cos(angle) * observer.vDist, observer.y + Math.sin(angle) * observer.vDist);
 				}
 
-				current = new LinePoint(point, sharpestLine);
+				current.set(radarPoint, sharpestLine);
 
-			} else if (point == lastPoint || (point.connectedLines != null && point.connectedLines.contains(current.line))) {
+			} else if (radarPoint == lastPoint || isOnLine(radarPoint, current.line)) {
 				//line není null, bod na radaru je její součástí (koncový nebo i uprostřed)
 
-				horizont.add(current.point);
+				horizont.add(current.point.point);
 
 				if (current.line.hasEndPoint(point)) {
 					//bod je koncovým lajny
-					Line pointRay = Line.constructFromTwoPoints(observerPoint, point);
-					Line sharpestLine = getSharpestLine(pointRay, current.line, true); //OK *** povolen i "svislý" krok
+					Line pointRay = setRay(point);
+					Line sharpestLine = getSharpestLine(radarPoint, pointRay, current.line, true); //OK *** povolen i "svislý" krok
 
 					if (sharpestLine == null) {
 						//nic relevantního z něho nevede doprava => tečna, zanoříme a uvidíme
 						horizont.add(point);
 						//to mohlo vybrat lajnu a na ní bod, nebo bod na obvodu (current.line je null)
-						current = getFirstCollision(pointRay, lines, point);
+						getFirstActiveCollision(pointRay, point, current);
 					} else {
 						//sharpest lajna doprava je vybrana, pokracujeme po ni
-						current = new LinePoint(point, sharpestLine);
+						current.set(radarPoint, sharpestLine);
 					}
 				} else {
 					//bod je uprostřed lajny (lajna mizí za obvod)
-					current = new LinePoint(point, null);
+					current.set(radarPoint, null);
 				}
 			} else {
 				//line není null, bod na radaru není její součástí (koncový ani uprostřed)
 
 				//bod pred nebo za primkou
 				double pointDistSq = observerPoint.getDistanceSquare(point);
-				Line pointRay = Line.constructFromTwoPoints(observerPoint, point);
+				Line pointRay = setRay(point);
 				//prunik paprsku (observer -> zkoumany bod) s aktualni useckou
-				Point pointImage = pointRay.getIntersection(current.line);
+				boolean hasImage = pointRay.getIntersection(current.line, pointImage);
 
 				double curLineDistSq;
-				if (pointImage != null) {
+				if (hasImage) {
 					//bezny pripad: prunik pointRay a current line urcuje bod, kdery je bud bliz nebo dal nez zkoumany point
 					curLineDistSq = observerPoint.getDistanceSquare(pointImage);
 				} else {
@@ -315,14 +681,16 @@ public class TorchLight {
 					//bod je bliz => vynoreni (jinak nic, vezme se dalsi bod)
 
 					//vybere se nejlepsi navazujici lajna (nej-sharp)
-					Line sharpestLine = getSharpestLine(pointRay, null, false);
+					Line sharpestLine = getSharpestLine(radarPoint, pointRay, null, false);
 					if (sharpestLine != null) {
 						//prida se pocatecni bod
-						horizont.add(current.point);
+						horizont.add(current.point.point);
 						//a bod pocatku vynorovani
-						horizont.add(pointImage);
+						if (hasImage) {
+							horizont.add(pointImage);
+						}
 
-						current = new LinePoint(point, sharpestLine);
+						current.set(radarPoint, sharpestLine);
 					} else {
 						//existuje "svisla" lajna s timto bodem pred current.lajnou
 						//ignorovat, dalsi bod!
@@ -332,7 +700,6 @@ public class TorchLight {
 			}
 		}
 
-		horizont.add(current.point);
-		return horizont;
+		horizont.add(current.point.point);
 	}
 }
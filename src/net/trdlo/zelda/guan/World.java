@@ -1,22 +1,26 @@
 package net.trdlo.zelda.guan;
 
 import java.awt.Rectangle;
-import java.awt.image.BufferedImage;
+import java.awt.geom.Rectangle2D;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import javax.imageio.ImageIO;
 import net.trdlo.zelda.CommandExecuter;
 import net.trdlo.zelda.Console;
 import net.trdlo.zelda.NU;
@@ -24,29 +28,148 @@ import net.trdlo.zelda.NU;
 class World implements CommandExecuter {
 
 	public static final double MINIMAL_DETECTABLE_DISTANCE = 0.01;
+	/**
+	 * Nejvýše tolik změněných oblastí se drží jednotlivě, při dalších se nahradí svou obálkou
+	 */
+	private static final int MAX_DIRTY_REGIONS = 64;
 
 	private static final Pattern PAT_SAVE = Pattern.compile("^\\s*save\\s*$", Pattern.CASE_INSENSITIVE);
 	private static final Pattern PAT_SAVE_AS = Pattern.compile("^\\s*save\\s+(?<file>.+)\\s*$", Pattern.CASE_INSENSITIVE);
 	private static final Pattern PAT_SETFOV = Pattern.compile("^\\s*setfov\\s+(\\d+)\\z", Pattern.CASE_INSENSITIVE);
+	private static final Pattern PAT_PVS = Pattern.compile("^\\s*pvs(?:\\s+(on|off|build))?\\s*$", Pattern.CASE_INSENSITIVE);
+	private static final Pattern PAT_SECTORIZE = Pattern.compile("^\\s*sectorize\\s+(?<dir>\\S+)(?:\\s+(?<size>\\d+))?\\s*$", Pattern.CASE_INSENSITIVE);
+	private static final Pattern PAT_STREAM = Pattern.compile("^\\s*stream(?:\\s+(?<dir>\\S+))?\\s*$", Pattern.CASE_INSENSITIVE);
+	private static final Pattern PAT_TEXTURES = Pattern.compile("^\\s*textures(?:\\s+(?<budget>\\d+))?\\s*$", Pattern.CASE_INSENSITIVE);
+	private static final Pattern PAT_AUTOSAVE = Pattern.compile("^\\s*autosave(?:\\s+(?:(?<seconds>\\d+)|(?<off>off)))?\\s*$", Pattern.CASE_INSENSITIVE);
+	private static final Pattern PAT_WELD = Pattern.compile("^\\s*weld(?:\\s+(?<tolerance>\\d*\\.?\\d+))?\\s*$", Pattern.CASE_INSENSITIVE);
+	private static final Pattern PAT_CROSSINGS = Pattern.compile("^\\s*crossings(?:\\s+(?<split>split))?\\s*$", Pattern.CASE_INSENSITIVE);
+
+	private static final ForkJoinPool HORIZONT_POOL = new ForkJoinPool();
 
 	public static final Pattern PAT_IMAGE = Pattern.compile("^img\\s+([a-zA-Z0-9/_\\-]+\\.(?:png|jpg))\\z", Pattern.CASE_INSENSITIVE);
 
 	private String loadedFrom;
+	/**
+	 * Po načtení mapy rozdělit lajny v jejich průsečících (SegmentSweep); změny jdou do deníku úprav
+	 */
+	boolean splitCrossingsOnLoad;
 
 	final Set<Point> points;
 	final Set<Line> lines;
 	final Set<Player> players;
 	final Set<Texture> textures;
 
+	final SegmentGrid lineGrid;
+	/**
+	 * Mřížka nad body pro getPointAt a getPointsIn, body ji aktualizují samy při každém posunu
+	 */
+	final PointGrid pointGrid;
+	/**
+	 * Shluky bodů pro oddálené pohledy editoru, udržují se stejně jako pointGrid
+	 */
+	final PointClusters pointClusters;
+	/**
+	 * Potenciálně viditelné lajny z buněk v hranicích světa, používá je výpočet horizontu (lze vypnout příkazem pvs off)
+	 */
+	final PotentiallyVisibleSet pvs;
+	boolean pvsEnabled = true;
+	/**
+	 * Načítání geometrie po sektorech kolem hráčů (příkaz stream), nebo null
+	 */
+	private SectorStreamer streamer;
+	/**
+	 * Deník úprav mapy, ze které byl svět načten (nebo null); příkaz save do něj připíše změny
+	 */
+	private EditJournal journal;
+	/**
+	 * ID, které dostane příští přidaný bod bez ID
+	 */
+	int nextPointId;
+	/**
+	 * Poslední uložení běžící na pozadí (nebo null) a hlášení o dokončených uloženích pro konzoli
+	 */
+	private Future<?> pendingSave;
+	private final Queue<String> saveReports = new ConcurrentLinkedQueue<>();
+	/**
+	 * Interval automatického ukládání v ms, 0 = vypnuto
+	 */
+	private long autosaveInterval;
+	private long lastAutosave;
+
+	/**
+	 * Čítač změn geometrie, podle kterého se zneplatňují uložené horizonty
+	 */
+	private long version;
+	/**
+	 * Oblasti světa, ve kterých se od posledního takeDirtyRegions změnila geometrie (pro vyrovnávací vrstvu editoru)
+	 */
+	private final List<Rectangle2D.Double> dirtyRegions = new ArrayList<>();
+
+	/**
+	 * Horizonty všech hráčů z posledního volání computeHorizonts, mapa i buffery se už nemění
+	 */
+	private volatile Map<Player, PolygonBuffer> horizonts = Collections.emptyMap();
+
 	Rectangle bounds;
 
 	World() {
-		points = new LinkedHashSet<>();
+		pointGrid = new PointGrid();
+		pointClusters = new PointClusters();
+		points = new LinkedHashSet<Point>() {
+			@Override
+			public boolean add(Point p) {
+				if (super.add(p)) {
+					if (p.id < 0) {
+						p.id = nextPointId++;
+					} else {
+						nextPointId = Math.max(nextPointId, p.id + 1);
+					}
+					p.world = World.this;
+					markDirty(p.x, p.y, p.x, p.y);
+					pointGrid.add(p);
+					pointClusters.add(p);
+					if (journal != null) {
+						journal.pointAdded(p);
+					}
+					return true;
+				}
+				return false;
+			}
+
+			@Override
+			public boolean remove(Object o) {
+				if (super.remove(o)) {
+					Point p = (Point) o;
+					p.world = null;
+					markDirty(p.x, p.y, p.x, p.y);
+					pointGrid.remove(p);
+					pointClusters.remove(p);
+					if (journal != null) {
+						journal.pointRemoved(p);
+					}
+					return true;
+				}
+				return false;
+			}
+		};
+		lineGrid = new SegmentGrid();
+		pvs = new PotentiallyVisibleSet(this);
 		lines = new LinkedHashSet<Line>() {
 			@Override
 			public boolean add(Line l) {
 				l.connect();
-				return super.add(l);
+				if (super.add(l)) {
+					l.world = World.this;
+					markDirty(l.A.x, l.A.y, l.B.x, l.B.y);
+					lineGrid.add(l);
+					pvs.lineAdded(l);
+					version++;
+					if (journal != null) {
+						journal.lineAdded(l);
+					}
+					return true;
+				}
+				return false;
 			}
 
 			@Override
@@ -54,7 +177,19 @@ class World implements CommandExecuter {
 				if (o instanceof Line) {
 					((Line) o).disconnect();
 				}
-				return super.remove(o);
+				if (super.remove(o)) {
+					Line l = (Line) o;
+					l.world = null;
+					markDirty(l.A.x, l.A.y, l.B.x, l.B.y);
+					lineGrid.remove(l);
+					pvs.lineRemoved(l);
+					version++;
+					if (journal != null) {
+						journal.lineRemoved(l);
+					}
+					return true;
+				}
+				return false;
 			}
 		};
 		players = new LinkedHashSet<>();
@@ -70,34 +205,43 @@ class World implements CommandExecuter {
 		return players.iterator().next();
 	}
 
+	/**
+	 * Načte svět z textové nebo binární mapy (BinaryMap), formát se pozná podle hlavičky souboru. Pokud mapa má
+	 * deník úprav (EditJournal), přehraje se.
+	 *
+	 * @param fileName
+	 * @throws Exception
+	 */
 	public final void loadFromFile(String fileName) throws Exception {
+		if (BinaryMap.isBinaryMap(fileName)) {
+			BinaryMap.load(this, fileName);
+		} else {
+			MapParser.load(this, fileName);
+		}
+		journal = EditJournal.open(this, fileName);
+		if (splitCrossingsOnLoad) {
+			Console.getInstance().echo(SegmentSweep.split(this));
+		}
+		loadTextures();
+		loadedFrom = fileName;
+	}
+
+	/**
+	 * Původní načítání textové mapy po řádcích přes regulární výrazy; MapParser musí dávat stejný svět. Zůstává
+	 * jako referenční implementace pro srovnávací benchmark.
+	 *
+	 * @param fileName
+	 * @throws Exception
+	 */
+	final void loadWithPatterns(String fileName) throws Exception {
 		try (BufferedReader br = new BufferedReader(new FileReader(fileName))) {
 			String line;
 			Map<Integer, Point> idPointMap = new HashMap<>();
-			Map<String, BufferedImage> imageFileMap = new HashMap<>();
 			while ((line = br.readLine()) != null) {
 				if (Point.lineMatchesPattern(line)) {
 					LoadedPoint lp = Point.loadFromString(line);
 					idPointMap.put(lp.id, lp.point);
 					points.add(lp.point);
-					Matcher m;
-					if ((m = PAT_IMAGE.matcher(lp.point.getDescription())).matches()) {
-						String imgFileName = m.group(1);
-						BufferedImage img = imageFileMap.get(imgFileName);
-						if (img == null) {
-							try {
-								img = ImageIO.read(new File(imgFileName));
-								if (img != null) {
-									imageFileMap.put(imgFileName, img);
-								}
-							} catch (IOException ex) {
-
-							}
-						}
-						if (img != null) {
-							textures.add(new Texture(img, lp.point));
-						}
-					}
 				} else if (Line.lineMatchesPattern(line)) {
 					LoadedLine ll = Line.loadFromString(line);
 					Point A = idPointMap.get(ll.idA);
@@ -113,91 +257,304 @@ class World implements CommandExecuter {
 					players.add(Player.loadFromString(line));
 				}
 			}
+			loadTextures();
 			loadedFrom = fileName;
 		}
 	}
 
-	public void saveToFile(String fileName) throws Exception {
-		try (Writer w = new BufferedWriter(new FileWriter(fileName))) {
-			int id = 0;
-			Map<Point, Integer> pointIdMap = new HashMap<>();
-			for (Player p : players) {
-				w.write(p.saveToString());
-				w.write("\n");
-			}
-			for (Point p : points) {
-				w.write(p.saveToString(id));
-				w.write("\n");
-				pointIdMap.put(p, id);
-				id++;
-			}
-			for (Line l : lines) {
-				w.write(l.saveToString(pointIdMap.get(l.A), pointIdMap.get(l.B)));
-				w.write("\n");
+	/**
+	 * Vytvoří textury pro body, jejichž popis odkazuje na obrázek (PAT_IMAGE); obrázky se načtou až při
+	 * vykreslení (TextureCache)
+	 */
+	private void loadTextures() {
+		for (Point p : points) {
+			Matcher m;
+			//většina bodů popis nemá, matcher se vytváří jen pro popisy začínající na img
+			if (p.getDescription().regionMatches(true, 0, "img", 0, 3) && (m = PAT_IMAGE.matcher(p.getDescription())).matches()) {
+				textures.add(new Texture(m.group(1), p));
 			}
 		}
 	}
 
+	/**
+	 * Uloží celý svět; soubor s koncovkou BinaryMap.EXTENSION v binárním formátu, jinak jako text
+	 *
+	 * @param fileName
+	 * @throws Exception
+	 */
+	public void saveToFile(String fileName) throws Exception {
+		WorldSnapshot.of(this).save(fileName);
+	}
+
+	/**
+	 * Uloží celý svět na pozadí; na herním vlákně se jen vezme snímek (WorldSnapshot), výsledek ohlásí konzole
+	 *
+	 * @param fileName
+	 */
+	public void saveInBackground(final String fileName) {
+		final WorldSnapshot snapshot = WorldSnapshot.of(this);
+		pendingSave = WorldSnapshot.WRITER.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					long start = System.nanoTime();
+					snapshot.save(fileName);
+					reportSave(String.format("Saved %s in %d ms", fileName, (System.nanoTime() - start) / 1000000));
+				} catch (IOException ex) {
+					reportSave("Could not save file: " + ex.toString());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Uloží změny na pozadí do mapy, ze které byl svět načten; pokud má mapa deník, připíší se jen změny od minula
+	 *
+	 * @throws Exception
+	 */
 	public void save() throws Exception {
-		if (loadedFrom != null) {
-			saveToFile(loadedFrom);
+		save(false);
+	}
+
+	/**
+	 * @param quiet	hlásit jen chyby
+	 */
+	private void save(boolean quiet) throws Exception {
+		if (journal != null) {
+			Future<?> saving = journal.save(quiet);
+			if (saving != null) {
+				pendingSave = saving;
+			}
+		} else if (loadedFrom != null) {
+			saveInBackground(loadedFrom);
 		}
 	}
 
+	/**
+	 * Hlášení o uložení z vlákna, které zapisovalo; konzoli se předá v update
+	 *
+	 * @param message
+	 */
+	void reportSave(String message) {
+		saveReports.add(message);
+	}
+
 	public void update() {
+		String report;
+		while ((report = saveReports.poll()) != null) {
+			Console.getInstance().echo(report);
+		}
+		while ((report = TextureCache.getInstance().pollReport()) != null) {
+			Console.getInstance().echo(report);
+		}
+		if (autosaveInterval > 0 && System.currentTimeMillis() - lastAutosave >= autosaveInterval) {
+			autosave();
+		}
+		if (streamer != null) {
+			streamer.update();
+		}
+		computeHorizonts();
+	}
 
+	/**
+	 * Automatické uložení stejnou cestou jako příkaz save; jen pokud je co ukládat a předchozí uložení už doběhlo
+	 */
+	private void autosave() {
+		lastAutosave = System.currentTimeMillis();
+		if (journal == null || !journal.isDirty() || (pendingSave != null && !pendingSave.isDone())) {
+			return;
+		}
+		try {
+			save(true);
+		} catch (Exception ex) {
+			Console.getInstance().echo("Could not save file: " + ex.toString());
+		}
 	}
 
-	public Point getPointAt(double x, double y, double rectSize) {
-		Point nearest = null;
-		double minDistSq = Double.MAX_VALUE;
-		for (Point p : points) {
-			double distSq = p.getDistanceSquare(x, y);
-			if (distSq < minDistSq) {
-				minDistSq = distSq;
-				nearest = p;
-			}
+	/**
+	 * Odebere všechny body, lajny a textury (hráči zůstávají)
+	 */
+	void clearGeometry() {
+		for (Line l : new ArrayList<>(lines)) {
+			lines.remove(l);
 		}
-		if (nearest != null && Math.max(Math.abs(nearest.getX() - x), Math.abs(nearest.getY() - y)) < (rectSize / 2.0)) {
-			return nearest;
+		for (Point p : new ArrayList<>(points)) {
+			points.remove(p);
+		}
+		textures.clear();
+	}
+
+	/**
+	 * Volá lajna patřící tomuto světu, kdykoli se změní její koncové body nebo jejich poloha
+	 *
+	 * @param line
+	 */
+	void lineChanged(Line line) {
+		markDirty(line.A.x, line.A.y, line.B.x, line.B.y);
+		lineGrid.update(line);
+		pvs.lineChanged(line);
+		version++;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Horizont pozorovatele; spočítá se znovu jen pokud se od minula změnil pozorovatel nebo geometrie světa. Vrácený
+	 * buffer se při dalším přepočtu přepíše.
+	 *
+	 * @param observer
+	 * @return
+	 */
+	public PolygonBuffer getHorizont(Player observer) {
+		return observer.horizontCache.get(this, observer);
+	}
+
+	/**
+	 * Spočítá horizonty všech hráčů paralelně na fork-join poolu a atomicky je zveřejní jako nový snímek (viz
+	 * getHorizonts). Volá se z herního vlákna; svět ani hráči se během výpočtu nesmí měnit.
+	 *
+	 * @return	neměnná mapa hráč -> kopie jeho horizontu
+	 */
+	public Map<Player, PolygonBuffer> computeHorizonts() {
+		Player[] observers = players.toArray(new Player[players.size()]);
+		PolygonBuffer[] results = new PolygonBuffer[observers.length];
+		HorizontTask task = new HorizontTask(this, observers, results, 0, observers.length);
+		if (observers.length > 1) {
+			HORIZONT_POOL.invoke(task);
 		} else {
-			return null;
+			task.invoke();
 		}
+
+		Map<Player, PolygonBuffer> snapshot = new LinkedHashMap<>();
+		for (int i = 0; i < observers.length; i++) {
+			snapshot.put(observers[i], results[i]);
+		}
+		horizonts = Collections.unmodifiableMap(snapshot);
+		return horizonts;
 	}
 
-	public Line getLineAt(double x, double y, double maxDist) {
-		Line nearest = null;
-		double maxDistSqr = NU.sqr(maxDist);
-		double minDistSq = Double.MAX_VALUE;
-		for (Line l : lines) {
-			if (l.isValid()) {
-				double distSq = l.getSegmentDistanceSquare(x, y);
-				if (distSq < minDistSq) {
-					minDistSq = distSq;
-					nearest = l;
+	/**
+	 * Poslední snímek horizontů všech hráčů; lze číst z libovolného vlákna
+	 *
+	 * @return
+	 */
+	public Map<Player, PolygonBuffer> getHorizonts() {
+		return horizonts;
+	}
+
+	/**
+	 * Zpráva od bodu, že změnil polohu nebo popis
+	 *
+	 * @param p
+	 */
+	void pointChanged(Point p) {
+		double[] old = pointClusters.getPosition(p);
+		if (old != null) {
+			//původní poloha bodu a lajn z něj (nové polohy lajn hlásí lineChanged)
+			double oldX = old[0], oldY = old[1];
+			markDirty(oldX, oldY, p.x, p.y);
+			if (p.connectedLines != null) {
+				for (Line l : p.connectedLines) {
+					Point other = l.A == p ? l.B : l.A;
+					markDirty(oldX, oldY, other.x, other.y);
 				}
 			}
 		}
-		if (nearest != null && minDistSq < maxDistSqr) {
+		pointGrid.update(p);
+		pointClusters.update(p);
+		if (journal != null) {
+			journal.pointChanged(p);
+		}
+	}
+
+	/**
+	 * Zpráva od lajny, že se jí chystají změnit koncové body
+	 *
+	 * @param line
+	 */
+	void lineEndsChanging(Line line) {
+		markDirty(line.A.x, line.A.y, line.B.x, line.B.y);
+		if (journal != null) {
+			journal.lineEndsChanging(line);
+		}
+	}
+
+	/**
+	 * Zaznamená změnu geometrie v obdélníku se zadanými rohy
+	 */
+	private void markDirty(double x1, double y1, double x2, double y2) {
+		Rectangle2D.Double region = new Rectangle2D.Double(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1), Math.abs(y2 - y1));
+		if (dirtyRegions.size() >= MAX_DIRTY_REGIONS) {
+			for (Rectangle2D.Double r : dirtyRegions) {
+				region.add(r);
+			}
+			dirtyRegions.clear();
+		}
+		dirtyRegions.add(region);
+	}
+
+	/**
+	 * Přesune do result oblasti změněné od posledního volání
+	 *
+	 * @param result
+	 */
+	public void takeDirtyRegions(Collection<Rectangle2D.Double> result) {
+		result.addAll(dirtyRegions);
+		dirtyRegions.clear();
+	}
+
+	public Point getPointAt(double x, double y, double rectSize) {
+		//bod ve čtverci rectSize je blíž než polovina jeho úhlopříčky
+		Point nearest = pointGrid.getNearestPoint(x, y, rectSize / 2.0 * Math.sqrt(2));
+		if (nearest != null && Math.max(Math.abs(nearest.getX() - x), Math.abs(nearest.getY() - y)) < (rectSize / 2.0)) {
 			return nearest;
 		} else {
 			return null;
 		}
 	}
 
+	public Line getLineAt(double x, double y, double maxDist) {
+		return lineGrid.getNearestLine(x, y, maxDist);
+	}
+
+	/**
+	 * Nejvýše count lajn nejbližších k bodu [x; y] (blíž než maxDist), seřazených podle vzdálenosti
+	 *
+	 * @param x
+	 * @param y
+	 * @param count
+	 * @param maxDist
+	 * @return
+	 */
+	public List<Line> getLinesAt(double x, double y, int count, double maxDist) {
+		return lineGrid.getNearestLines(x, y, count, maxDist);
+	}
+
+	/**
+	 * Lajny, jejichž vzdálenost od bodu [x; y] je nejvýše maxDist
+	 *
+	 * @param x
+	 * @param y
+	 * @param maxDist
+	 * @return
+	 */
+	public Set<Line> getLinesWithin(double x, double y, double maxDist) {
+		Set<Line> resultSet = new LinkedHashSet<>();
+		lineGrid.getLinesWithin(x, y, maxDist, resultSet);
+		return resultSet;
+	}
+
 	public Set<Point> getPointsIn(double x1, double y1, double x2, double y2) {
 		Set<Point> resultSet = new LinkedHashSet<>();
-		for (Point p : points) {
-			if (p.inRect(x1, y1, x2, y2)) {
-				resultSet.add(p);
-			}
-		}
+		pointGrid.getPointsIn(x1, y1, x2, y2, resultSet);
 		return resultSet;
 	}
 
 	public void shiftPoints(Set<Point> shiftPoints, double dx, double dy) {
-		for (Point p : points) {
-			if (shiftPoints.contains(p)) {
+		for (Point p : shiftPoints) {
+			if (points.contains(p)) {
 				p.setXY(p.getX() + dx, p.getY() + dy);
 			}
 		}
@@ -226,6 +583,50 @@ class World implements CommandExecuter {
 			for (Player p : players) {
 				p.fov = fov;
 			}
+		} else if ((m = PAT_PVS.matcher(command)).matches()) {
+			String arg = m.group(1);
+			if ("on".equalsIgnoreCase(arg) || "off".equalsIgnoreCase(arg)) {
+				pvsEnabled = "on".equalsIgnoreCase(arg);
+				version++;
+			} else if ("build".equalsIgnoreCase(arg)) {
+				double vDist = 0;
+				for (Player p : players) {
+					vDist = Math.max(vDist, p.vDist);
+				}
+				pvs.computeAll(vDist);
+			}
+			console.echo(pvs.getStats() + (pvsEnabled ? "" : " (disabled)"));
+		} else if ((m = PAT_SECTORIZE.matcher(command)).matches()) {
+			double size = m.group("size") != null ? Integer.valueOf(m.group("size")) : SectorStreamer.DEFAULT_SECTOR_SIZE;
+			try {
+				int count = SectorStreamer.sectorize(this, new File(m.group("dir")), size);
+				console.echo("%d sectors written to %s", count, m.group("dir"));
+			} catch (IOException ex) {
+				console.echo("Could not sectorize world: " + ex.toString());
+			}
+		} else if ((m = PAT_STREAM.matcher(command)).matches()) {
+			String dir = m.group("dir");
+			if (dir == null) {
+				console.echo(streamer != null ? streamer.getStats() : "Streaming is off");
+			} else if ("off".equalsIgnoreCase(dir)) {
+				if (streamer != null) {
+					streamer.close();
+					streamer = null;
+				}
+			} else {
+				try {
+					SectorStreamer opened = SectorStreamer.open(this, new File(dir));
+					if (streamer != null) {
+						streamer.close();
+					}
+					journal = null;
+					clearGeometry();
+					streamer = opened;
+					console.echo("Streaming sectors from %s", dir);
+				} catch (IOException ex) {
+					console.echo("Could not open sectors: " + ex.toString());
+				}
+			}
 		} else if (PAT_SAVE.matcher(command).matches()) {
 			try {
 				save();
@@ -233,12 +634,29 @@ class World implements CommandExecuter {
 				Console.getInstance().echo("Could not save file: " + ex.toString());
 			}
 		} else if ((m = PAT_SAVE_AS.matcher(command)).matches()) {
-			String fileName = m.group("file");
-			try {
-				saveToFile(fileName);
-			} catch (Exception ex) {
-				Console.getInstance().echo("Could not save file: " + ex.toString());
+			saveInBackground(m.group("file"));
+		} else if ((m = PAT_TEXTURES.matcher(command)).matches()) {
+			if (m.group("budget") != null) {
+				TextureCache.getInstance().setBudget(Long.valueOf(m.group("budget")) << 20);
+			}
+			console.echo(TextureCache.getInstance().getStats());
+		} else if ((m = PAT_AUTOSAVE.matcher(command)).matches()) {
+			if (m.group("seconds") != null) {
+				autosaveInterval = Integer.valueOf(m.group("seconds")) * 1000L;
+				lastAutosave = System.currentTimeMillis();
+			} else if (m.group("off") != null) {
+				autosaveInterval = 0;
+			}
+			if (autosaveInterval > 0) {
+				console.echo("Autosave every %d s%s", autosaveInterval / 1000, journal != null ? "" : " (only maps loaded from a file)");
+			} else {
+				console.echo("Autosave is off");
 			}
+		} else if ((m = PAT_WELD.matcher(command)).matches()) {
+			double tolerance = m.group("tolerance") != null ? Double.valueOf(m.group("tolerance")) : PointWelder.DEFAULT_TOLERANCE;
+			console.echo(PointWelder.weld(this, tolerance));
+		} else if ((m = PAT_CROSSINGS.matcher(command)).matches()) {
+			console.echo(m.group("split") != null ? SegmentSweep.split(this) : SegmentSweep.check(this));
 		} else {
 			return false;
 		}
@@ -0,0 +1,136 @@
+package net.trdlo.zelda.guan;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Neměnná kopie obsahu světa pro zápis mapy: hráči, ID, souřadnice a popisy bodů a ID koncových bodů lajn. Vytváří
+ * se na herním vlákně, zapsat ji lze z libovolného vlákna, zatímco se svět dál mění. Body a lajny jsou v pořadí
+ * World.points a World.lines, takže malá úprava v uložené mapě změní jen pár řádků.
+ */
+class WorldSnapshot {
+
+	/**
+	 * Vlákno pro zápis map a deníků úprav; zápisy jdou postupně v pořadí, v jakém je zadalo herní vlákno
+	 */
+	static final ExecutorService WRITER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "map-writer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	final List<Player> players;
+	final int pointCount;
+	final int[] pointIds;
+	final double[] pointCoords;
+	final String[] descriptions;
+	final int lineCount;
+	/**
+	 * Indexy koncových bodů [A, B] do polí bodů, -1 pro bod mimo svět
+	 */
+	final int[] lineEnds;
+
+	private WorldSnapshot(World world) {
+		players = new ArrayList<>(world.players.size());
+		for (Player p : world.players) {
+			players.add(new Player(p.x, p.y, p.orientation, p.fov));
+		}
+
+		pointCount = world.points.size();
+		pointIds = new int[pointCount];
+		pointCoords = new double[2 * pointCount];
+		descriptions = new String[pointCount];
+		Map<Point, Integer> indices = new HashMap<>(2 * pointCount);
+		int i = 0;
+		for (Point p : world.points) {
+			indices.put(p, i);
+			pointIds[i] = p.id;
+			pointCoords[2 * i] = p.x;
+			pointCoords[2 * i + 1] = p.y;
+			descriptions[i] = p.getDescription();
+			i++;
+		}
+
+		lineCount = world.lines.size();
+		lineEnds = new int[2 * lineCount];
+		i = 0;
+		for (Line l : world.lines) {
+			Integer a = indices.get(l.A), b = indices.get(l.B);
+			lineEnds[2 * i] = a != null ? a : -1;
+			lineEnds[2 * i + 1] = b != null ? b : -1;
+			i++;
+		}
+	}
+
+	/**
+	 * Volá se z herního vlákna
+	 *
+	 * @param world
+	 * @return
+	 */
+	static WorldSnapshot of(World world) {
+		return new WorldSnapshot(world);
+	}
+
+	/**
+	 * Uloží kopii; soubor s koncovkou BinaryMap.EXTENSION v binárním formátu, jinak jako text. Zapisuje se do
+	 * dočasného souboru, který se po zápisu na disk (fsync) přejmenuje na cílový, takže přerušený zápis mapu
+	 * nepoškodí.
+	 *
+	 * @param fileName
+	 * @throws IOException
+	 */
+	void save(String fileName) throws IOException {
+		File target = new File(fileName).getAbsoluteFile();
+		File temp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+		try {
+			if (fileName.endsWith(BinaryMap.EXTENSION)) {
+				BinaryMap.save(this, temp.getPath());
+			} else {
+				saveText(temp);
+			}
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+	}
+
+	private void saveText(File file) throws IOException {
+		try (FileOutputStream out = new FileOutputStream(file); Writer w = new BufferedWriter(new OutputStreamWriter(out))) {
+			for (Player p : players) {
+				w.write(p.saveToString());
+				w.write("\n");
+			}
+			for (int i = 0; i < pointCount; i++) {
+				w.write(Point.saveToString(pointIds[i], pointCoords[2 * i], pointCoords[2 * i + 1], descriptions[i]));
+				w.write("\n");
+			}
+			for (int i = 0; i < lineCount; i++) {
+				w.write(Line.saveToString(getLineId(2 * i), getLineId(2 * i + 1)));
+				w.write("\n");
+			}
+			w.flush();
+			out.getFD().sync();
+		}
+	}
+
+	private int getLineId(int end) {
+		return lineEnds[end] >= 0 ? pointIds[lineEnds[end]] : -1;
+	}
+}